@@ -46,11 +46,23 @@ public class Main {
         options.addOption("bs", "block-size", true, "block size (in bytes) for external memory mapped file allocator.  default is 8 bytes");
         options.addOption("i", "idle", true, "disconnect after idle <x> seconds");
         options.addOption("p", "port", true, "port to listen on");
+        options.addOption("U", "udp-port", true, "UDP port to serve text protocol gets on; default is 0, off");
         options.addOption("m", "memory", true, "max memory to use; in bytes, specify K, kb, M, GB for larger units");
         options.addOption("c", "ceiling", true, "ceiling memory to use; in bytes, specify K, kb, M, GB for larger units");
-        options.addOption("l", "listen", true, "Address to listen on");
+        options.addOption("l", "listen", true, "Address to listen on; a comma separated list listens on each of them");
         options.addOption("s", "size", true, "max items");
         options.addOption("b", "binary", false, "binary protocol mode");
+        options.addOption("a", "auto-protocol", false, "serve both text and binary protocol clients, detecting which per connection");
+        options.addOption("t", "threads", true, "number of network worker threads; default is " + MemCacheDaemon.DEFAULT_WORKERS_PER_CORE + " per core");
+        options.addOption("st", "slow-threads", true, "number of threads running stats, flush_all, append and prepend off the network workers; default 0 runs them inline");
+        options.addOption("bl", "backlog", true, "length of the queue of pending connections; default is " + MemCacheDaemon.DEFAULT_BACKLOG);
+        options.addOption("sb", "sndbuf", true, "socket send buffer size per connection; in bytes, specify K, kb, M for larger units");
+        options.addOption("rb", "rcvbuf", true, "socket receive buffer size per connection; in bytes, specify K, kb, M for larger units");
+        options.addOption("nd", "no-nodelay", false, "leave Nagle's algorithm enabled on connections");
+        options.addOption("tr", "transport", true, "network transport: nio (the default), or the class name of a netty ServerSocketChannelFactory; falls back to nio if unavailable");
+        options.addOption("mc", "max-connections", true, "maximum simultaneous connections; default is no limit");
+        options.addOption("hk", "hot-keys", true, "track the most requested keys for 'stats hotkeys', sampling one in <x> gets and sets; default 0 is off");
+        options.addOption("j", "jmx", false, "register cache, storage and connection statistics as JMX MBeans");
         options.addOption("V", false, "Show version number");
         options.addOption("v", false, "verbose (show commands)");
 
@@ -80,12 +92,50 @@ public class Main {
         }
 
         InetSocketAddress addr = new InetSocketAddress(port);
+        String[] extraListen = new String[0];
+        String listen = null;
         if (cmdline.hasOption("l")) {
-            addr = new InetSocketAddress(cmdline.getOptionValue("l"), port);
+            listen = cmdline.getOptionValue("l");
         } else if (cmdline.hasOption("listen")) {
-            addr = new InetSocketAddress(cmdline.getOptionValue("listen"), port);
+            listen = cmdline.getOptionValue("listen");
+        }
+        if (listen != null) {
+            String[] hosts = listen.split(",");
+            addr = new InetSocketAddress(hosts[0].trim(), port);
+            extraListen = new String[hosts.length - 1];
+            System.arraycopy(hosts, 1, extraListen, 0, extraListen.length);
+        }
+
+        int backlog = MemCacheDaemon.DEFAULT_BACKLOG;
+        if (cmdline.hasOption("bl")) {
+            backlog = Integer.parseInt(cmdline.getOptionValue("bl"));
+        } else if (cmdline.hasOption("backlog")) {
+            backlog = Integer.parseInt(cmdline.getOptionValue("backlog"));
+        }
+
+        int sendBufferSize = -1;
+        if (cmdline.hasOption("sb")) {
+            sendBufferSize = (int)Bytes.valueOf(cmdline.getOptionValue("sb")).bytes();
+        } else if (cmdline.hasOption("sndbuf")) {
+            sendBufferSize = (int)Bytes.valueOf(cmdline.getOptionValue("sndbuf")).bytes();
         }
 
+        int receiveBufferSize = -1;
+        if (cmdline.hasOption("rb")) {
+            receiveBufferSize = (int)Bytes.valueOf(cmdline.getOptionValue("rb")).bytes();
+        } else if (cmdline.hasOption("rcvbuf")) {
+            receiveBufferSize = (int)Bytes.valueOf(cmdline.getOptionValue("rcvbuf")).bytes();
+        }
+
+        String transport = MemCacheDaemon.NIO_TRANSPORT;
+        if (cmdline.hasOption("tr")) {
+            transport = cmdline.getOptionValue("tr");
+        } else if (cmdline.hasOption("transport")) {
+            transport = cmdline.getOptionValue("transport");
+        }
+
+        boolean tcpNoDelay = !(cmdline.hasOption("nd") || cmdline.hasOption("no-nodelay"));
+
         int max_size = 1000000;
         if (cmdline.hasOption("s"))
             max_size = (int)Bytes.valueOf(cmdline.getOptionValue("s")).bytes();
@@ -94,6 +144,20 @@ public class Main {
 
         System.out.println("Setting max cache elements to " + String.valueOf(max_size));
 
+        int udpPort = 0;
+        if (cmdline.hasOption("U")) {
+            udpPort = Integer.parseInt(cmdline.getOptionValue("U"));
+        } else if (cmdline.hasOption("udp-port")) {
+            udpPort = Integer.parseInt(cmdline.getOptionValue("udp-port"));
+        }
+
+        int maxConnections = 0;
+        if (cmdline.hasOption("mc")) {
+            maxConnections = Integer.parseInt(cmdline.getOptionValue("mc"));
+        } else if (cmdline.hasOption("max-connections")) {
+            maxConnections = Integer.parseInt(cmdline.getOptionValue("max-connections"));
+        }
+
         int idle = -1;
         if (cmdline.hasOption("i")) {
             idle = Integer.parseInt(cmdline.getOptionValue("i"));
@@ -141,6 +205,32 @@ public class Main {
             binary = true;
         }
 
+        boolean autoProtocol = false;
+        if (cmdline.hasOption("a")) {
+            autoProtocol = true;
+        }
+
+        int threads = -1;
+        if (cmdline.hasOption("t")) {
+            threads = Integer.parseInt(cmdline.getOptionValue("t"));
+        } else if (cmdline.hasOption("threads")) {
+            threads = Integer.parseInt(cmdline.getOptionValue("threads"));
+        }
+
+        int slowThreads = 0;
+        if (cmdline.hasOption("st")) {
+            slowThreads = Integer.parseInt(cmdline.getOptionValue("st"));
+        } else if (cmdline.hasOption("slow-threads")) {
+            slowThreads = Integer.parseInt(cmdline.getOptionValue("slow-threads"));
+        }
+
+        int hotKeySampleRate = 0;
+        if (cmdline.hasOption("hk")) {
+            hotKeySampleRate = Integer.parseInt(cmdline.getOptionValue("hk"));
+        } else if (cmdline.hasOption("hot-keys")) {
+            hotKeySampleRate = Integer.parseInt(cmdline.getOptionValue("hot-keys"));
+        }
+
         int blockSize = 8;
         if (!memoryMapped && (cmdline.hasOption("bs") || cmdline.hasOption("block-size"))) {
             System.out.println("WARN : block size option is only valid for memory mapped external heap storage; ignoring");
@@ -191,11 +281,27 @@ public class Main {
         }
 
 
-        daemon.setCache(new CacheImpl(storage));
+        CacheImpl cache = new CacheImpl(storage);
+        cache.setHotKeyTracking(HotKeyTracker.DEFAULT_CAPACITY, hotKeySampleRate);
+        daemon.setCache(cache);
         daemon.setBinary(binary);
+        daemon.setAutoDetectProtocol(autoProtocol);
         daemon.setAddr(addr);
+        for (String host : extraListen) {
+            daemon.addListenAddress(new InetSocketAddress(host.trim(), port));
+        }
+        daemon.setBacklog(backlog);
+        daemon.setTransport(transport);
+        daemon.setTcpNoDelay(tcpNoDelay);
+        if (sendBufferSize != -1) daemon.setSendBufferSize(sendBufferSize);
+        if (receiveBufferSize != -1) daemon.setReceiveBufferSize(receiveBufferSize);
         daemon.setIdleTime(idle);
+        daemon.setMaxConnections(maxConnections);
+        daemon.setUdpPort(udpPort);
         daemon.setVerbose(verbose);
+        if (threads != -1) daemon.setWorkerCount(threads);
+        daemon.setSlowCommandThreads(slowThreads);
+        daemon.setJmx(cmdline.hasOption("j"));
         daemon.start();
 
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
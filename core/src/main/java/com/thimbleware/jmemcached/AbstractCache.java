@@ -1,11 +1,15 @@
 package com.thimbleware.jmemcached;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import com.thimbleware.jmemcached.util.CasUniqueGenerator;
+import com.thimbleware.jmemcached.util.LatencyHistogram;
+import com.thimbleware.jmemcached.util.StripedCounter;
+import com.thimbleware.jmemcached.util.Stripes;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.Set;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.HashSet;
 
 import static java.lang.String.*;
 
@@ -15,13 +19,32 @@ import static java.lang.String.*;
  */
 public abstract class AbstractCache<CACHE_ELEMENT extends CacheElement> implements Cache<CACHE_ELEMENT> {
 
+    private static final Charset USASCII = Charset.forName("US-ASCII");
+
     protected final AtomicLong started = new AtomicLong();
 
-    protected final AtomicInteger getCmds = new AtomicInteger();
-    protected final AtomicInteger setCmds = new AtomicInteger();
-    protected final AtomicInteger getHits = new AtomicInteger();
-    protected final AtomicInteger getMisses = new AtomicInteger();
-    protected final AtomicLong casCounter = new AtomicLong(1);
+    // every worker thread bumps these, so they're striped rather than single atomics
+    protected final StripedCounter getCmds = new StripedCounter();
+    protected final StripedCounter setCmds = new StripedCounter();
+    protected final StripedCounter getHits = new StripedCounter();
+    protected final StripedCounter getMisses = new StripedCounter();
+    protected final StripedCounter deleteHits = new StripedCounter();
+    protected final StripedCounter deleteMisses = new StripedCounter();
+    protected final StripedCounter incrHits = new StripedCounter();
+    protected final StripedCounter incrMisses = new StripedCounter();
+    protected final StripedCounter decrHits = new StripedCounter();
+    protected final StripedCounter decrMisses = new StripedCounter();
+    protected final StripedCounter casHits = new StripedCounter();
+    protected final StripedCounter casMisses = new StripedCounter();
+    protected final StripedCounter casBadval = new StripedCounter();
+    // striped by key, so that writers to different keys don't all contend on one counter
+    protected final CasUniqueGenerator casCounter = new CasUniqueGenerator(2 * Stripes.FOR_THREADS);
+
+    // time spent in the storage's own operations, in nanoseconds
+    protected final LatencyHistogram storageLatency = new LatencyHistogram();
+
+    // null unless hot key tracking has been turned on
+    protected volatile HotKeyTracker hotKeys;
 
     public AbstractCache() {
         initStats();
@@ -42,67 +65,183 @@ public abstract class AbstractCache<CACHE_ELEMENT extends CacheElement> implemen
 
     public abstract long getCurrentBytes();
 
+    /**
+     * @return the number of items the storage has evicted to make room for others
+     */
+    public abstract long getEvictions();
+
 
-    public final int getGetCmds() {
+    /**
+     * Track the most requested keys, for "stats hotkeys", from a sample of gets and sets.
+     *
+     * @param capacity the number of keys to track
+     * @param sampleRate look at one in this many keys requested; 0 turns tracking off
+     */
+    public void setHotKeyTracking(int capacity, int sampleRate) {
+        hotKeys = sampleRate == 0 ? null : new HotKeyTracker(capacity, sampleRate);
+    }
+
+    /**
+     * @return the hot key tracker, or null if tracking is off
+     */
+    public HotKeyTracker getHotKeys() {
+        return hotKeys;
+    }
+
+    public final long getGetCmds() {
         return getCmds.get();
     }
 
-    public final int getSetCmds() {
+    public final long getSetCmds() {
         return setCmds.get();
     }
 
-    public final int getGetHits() {
+    public final long getGetHits() {
         return getHits.get();
     }
 
-    public final int getGetMisses() {
+    public final long getGetMisses() {
         return getMisses.get();
     }
 
+    public final long getDeleteHits() {
+        return deleteHits.get();
+    }
+
+    public final long getDeleteMisses() {
+        return deleteMisses.get();
+    }
+
+    public final long getIncrHits() {
+        return incrHits.get();
+    }
+
+    public final long getIncrMisses() {
+        return incrMisses.get();
+    }
+
+    public final long getDecrHits() {
+        return decrHits.get();
+    }
+
+    public final long getDecrMisses() {
+        return decrMisses.get();
+    }
+
+    public final long getCasHits() {
+        return casHits.get();
+    }
+
+    public final long getCasMisses() {
+        return casMisses.get();
+    }
+
+    public final long getCasBadval() {
+        return casBadval.get();
+    }
+
     /**
      * Return runtime statistics
      *
-     * @param arg additional arguments to the stats command
+     * @param arg additional arguments to the stats command: "latency" for the storage latency, "latency reset" to
+     * also start it afresh; "hotkeys" for the most requested keys, most requested first, "hotkeys reset" to also
+     * start tracking afresh; "slabs" and "items" for the storage's own breakdown, if it has one
      * @return the full command response
      */
-    public final Map<String, Set<String>> stat(String arg) {
-        Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+    public final Stats stat(String arg) {
+        if (arg.startsWith("latency")) {
+            Stats result = new Stats().add("storage", storageLatency.summary());
+            if (arg.equals("latency reset")) storageLatency.reset();
+            return result;
+        }
+        if (arg.startsWith("hotkeys")) return hotKeys(arg.equals("hotkeys reset"));
+        if (arg.equals("slabs") || arg.equals("items")) {
+            Stats result = new Stats();
+            storageStat(arg, result);
+            return result;
+        }
+
+        Stats result = new Stats();
 
         // stats we know
-        multiSet(result, "version", MemCacheDaemon.memcachedVersion);
-        multiSet(result, "cmd_gets", valueOf(getGetCmds()));
-        multiSet(result, "cmd_sets", valueOf(getSetCmds()));
-        multiSet(result, "get_hits", valueOf(getGetHits()));
-        multiSet(result, "get_misses", valueOf(getGetMisses()));
-        multiSet(result, "time", valueOf(valueOf(Now())));
-        multiSet(result, "uptime", valueOf(Now() - this.started.longValue()));
-        multiSet(result, "cur_items", valueOf(this.getCurrentItems()));
-        multiSet(result, "limit_maxbytes", valueOf(this.getLimitMaxBytes()));
-        multiSet(result, "current_bytes", valueOf(this.getCurrentBytes()));
-        multiSet(result, "free_bytes", valueOf(Runtime.getRuntime().freeMemory()));
+        result.add("version", MemCacheDaemon.memcachedVersion);
+        result.add("cmd_gets", getGetCmds());
+        result.add("cmd_sets", getSetCmds());
+        result.add("get_hits", getGetHits());
+        result.add("get_misses", getGetMisses());
+        result.add("delete_hits", deleteHits.get());
+        result.add("delete_misses", deleteMisses.get());
+        result.add("incr_hits", incrHits.get());
+        result.add("incr_misses", incrMisses.get());
+        result.add("decr_hits", decrHits.get());
+        result.add("decr_misses", decrMisses.get());
+        result.add("cas_hits", casHits.get());
+        result.add("cas_misses", casMisses.get());
+        result.add("cas_badval", casBadval.get());
+        result.add("evictions", getEvictions());
+        result.add("time", Now());
+        result.add("uptime", Now() - this.started.longValue());
+        result.add("cur_items", this.getCurrentItems());
+        result.add("limit_maxbytes", this.getLimitMaxBytes());
+        result.add("current_bytes", this.getCurrentBytes());
+        result.add("free_bytes", Runtime.getRuntime().freeMemory());
 
         // Not really the same thing precisely, but meaningful nonetheless. potentially this should be renamed
-        multiSet(result, "pid", valueOf(Thread.currentThread().getId()));
+        result.add("pid", Thread.currentThread().getId());
 
-        // stuff we know nothing about; gets faked only because some clients expect this
-        multiSet(result, "rusage_user", "0:0");
-        multiSet(result, "rusage_system", "0:0");
-        multiSet(result, "connection_structures", "0");
+        rusage(result);
 
-        // TODO we could collect these stats
-        multiSet(result, "bytes_read", "0");
-        multiSet(result, "bytes_written", "0");
+        // known only to the network layer, which fills them in over these when it answers stats
+        result.add("connection_structures", 0);
+        result.add("bytes_read", 0);
+        result.add("bytes_written", 0);
 
         return result;
     }
 
-    private void multiSet(Map<String, Set<String>> map, String key, String val) {
-        Set<String> cur = map.get(key);
-        if (cur == null) {
-            cur = new HashSet<String>();
+    /**
+     * Add the storage's own stats for "stats slabs" or "stats items", in the order they should be listed; none by
+     * default.
+     *
+     * @param arg "slabs" or "items"
+     */
+    protected void storageStat(String arg, Stats result) {
+    }
+
+    private Stats hotKeys(boolean reset) {
+        // in order, most requested first
+        Stats result = new Stats();
+        HotKeyTracker tracker = hotKeys;
+        if (tracker == null) return result;
+
+        for (HotKeyTracker.HotKey hot : tracker.top()) {
+            String key = hot.key.bytes.toString(0, hot.key.bytes.capacity(), USASCII);
+            result.add(key, "count=" + hot.count + " error=" + hot.error);
+        }
+        if (reset) tracker.reset();
+        return result;
+    }
+
+    /**
+     * CPU time used, as seconds.microseconds, summed over the threads still alive; the JVM doesn't offer the
+     * process' own rusage.
+     */
+    private void rusage(Stats result) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long user = 0;
+        long system = 0;
+        if (threads.isThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled()) {
+            for (long id : threads.getAllThreadIds()) {
+                long cpu = threads.getThreadCpuTime(id);
+                long userCpu = threads.getThreadUserTime(id);
+                // -1 for threads which died in the meantime
+                if (cpu == -1 || userCpu == -1) continue;
+                user += userCpu;
+                system += cpu - userCpu;
+            }
         }
-        cur.add(val);
-        map.put(key, cur);
+        result.add("rusage_user", format("%d.%06d", user / 1000000000, user % 1000000000 / 1000));
+        result.add("rusage_system", format("%d.%06d", system / 1000000000, system % 1000000000 / 1000));
     }
 
     /**
@@ -110,10 +249,6 @@ public abstract class AbstractCache<CACHE_ELEMENT extends CacheElement> implemen
      */
     protected void initStats() {
         started.set(System.currentTimeMillis());
-//        getCmds.set(0);
-//        setCmds.set(0);
-//        getHits.set(0);
-//        getMisses.set(0);
 
 
     }
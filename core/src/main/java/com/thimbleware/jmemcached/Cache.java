@@ -1,8 +1,6 @@
 package com.thimbleware.jmemcached;
 
 import java.io.IOException;
-import java.util.Set;
-import java.util.Map;
 
 /**
  */
@@ -18,7 +16,41 @@ public interface Cache<CACHE_ELEMENT extends CacheElement> {
      * Enum defining responses statuses from removal commands
      */
     public enum DeleteResponse {
-        DELETED, NOT_FOUND
+        DELETED, NOT_FOUND, EXISTS
+    }
+
+    /**
+     * Enum defining the recache token state returned from meta get commands
+     */
+    public enum RecacheToken {
+        NONE, WON, ALREADY_SENT
+    }
+
+    /**
+     * The result of a meta get: the element found (if any) and whether the caller won the right to recache it.
+     */
+    public static final class MetaGetResponse<CACHE_ELEMENT extends CacheElement> {
+        public final CACHE_ELEMENT element;
+        public final RecacheToken token;
+
+        public MetaGetResponse(CACHE_ELEMENT element, RecacheToken token) {
+            this.element = element;
+            this.token = token;
+        }
+    }
+
+    /**
+     * The result of a meta arithmetic command: STORED with the counter's new value, NOT_FOUND if there's no counter,
+     * or EXISTS if its cas unique didn't match.
+     */
+    public static final class MetaArithmeticResponse {
+        public final StoreResponse response;
+        public final Long value;
+
+        public MetaArithmeticResponse(StoreResponse response, Long value) {
+            this.response = response;
+            this.value = value;
+        }
     }
 
     /**
@@ -80,12 +112,47 @@ public interface Cache<CACHE_ELEMENT extends CacheElement> {
     StoreResponse cas(Long cas_key, CACHE_ELEMENT e);
 
     /**
-     * Increment/decremen t an (integer) element in the cache
+     * Set an element in the cache but only if the element has not been touched since the last 'gets', as for the
+     * meta set command.
+     * @param cas_key the cas key returned by the last gets
+     * @param e the element to set
+     * @param invalidate if the cas key is older than the element's, store the element anyway but marked stale, so
+     * the next reader is handed the recache token
+     * @return the store response code
+     */
+    StoreResponse cas(Long cas_key, CACHE_ELEMENT e, boolean invalidate);
+
+    /**
+     * Increment/decrement an (unsigned 64 bit integer) element in the cache
      * @param key the key to increment
-     * @param mod the amount to add to the value
-     * @return the message response
+     * @param mod the amount to add to the value; negative to subtract
+     * @return the new value, to be read as unsigned; null if the key isn't there
+     */
+    Long get_add(Key key, long mod);
+
+    /**
+     * Increment/decrement an (unsigned 64 bit integer) element in the cache, creating it if it isn't there
+     * @param key the key to increment
+     * @param mod the amount to add to the value; negative to subtract
+     * @param expire if not -1, the new expiry to set on the element
+     * @param vivifyExpire if not -1, on a miss store the initial value with this expiry instead
+     * @param initial the value to store on a miss, unchanged by mod
+     * @return the new value, to be read as unsigned; null if the key isn't there and wasn't created
+     */
+    Long get_add(Key key, long mod, long expire, long vivifyExpire, long initial);
+
+    /**
+     * Increment/decrement an element in the cache as for the meta arithmetic command, as get_add but optionally only
+     * if the element has not been touched since the last 'gets'
+     * @param key the key to increment
+     * @param mod the amount to add to the value; negative to subtract
+     * @param expire if not -1, the new expiry to set on the element
+     * @param vivifyExpire if not -1, on a miss store the initial value with this expiry instead
+     * @param initial the value to store on a miss, unchanged by mod
+     * @param cas_key if not -1, only update the element if its cas unique matches
+     * @return the response code, and the new value if stored
      */
-    Integer get_add(Key key, int mod);
+    MetaArithmeticResponse meta_arithmetic(Key key, long mod, long expire, long vivifyExpire, long initial, long cas_key);
 
     /**
      * Get element(s) from the cache
@@ -94,6 +161,29 @@ public interface Cache<CACHE_ELEMENT extends CacheElement> {
      */
     CACHE_ELEMENT[] get(Key ... keys);
 
+    /**
+     * Get an element from the cache, as for the meta get command.
+     * <p/>
+     * The first client to see an element which is stale, or whose remaining ttl has dropped below recacheTtl, wins
+     * the token to recache it; everyone after that is told the token was already handed out.
+     * @param key the key for the element to lookup
+     * @param expire if not -1, the new expiry to set on the element
+     * @param vivifyExpire if not -1, on a miss store an empty element with this expiry and hand out the token
+     * @param recacheTtl if not -1, the remaining ttl (in seconds) below which the token is handed out
+     * @return the element (or null in case of a miss) and the token state
+     */
+    MetaGetResponse<CACHE_ELEMENT> meta_get(Key key, long expire, long vivifyExpire, int recacheTtl);
+
+    /**
+     * Delete an element from the cache, as for the meta delete command.
+     * @param key the key for the item
+     * @param cas_key if not -1, only delete if the element's cas unique matches
+     * @param invalidate mark the element as stale instead of removing it
+     * @param expire if not -1 and invalidating, the new expiry to set on the element
+     * @return the message response
+     */
+    DeleteResponse meta_delete(Key key, long cas_key, boolean invalidate, long expire);
+
     /**
      * Flush all cache entries
      * @return command response
@@ -132,29 +222,29 @@ public interface Cache<CACHE_ELEMENT extends CacheElement> {
     /**
      * @return the number of get commands executed
      */
-    int getGetCmds();
+    long getGetCmds();
 
     /**
      * @return the number of set commands executed
      */
-    int getSetCmds();
+    long getSetCmds();
 
     /**
      * @return the number of get hits
      */
-    int getGetHits();
+    long getGetHits();
 
     /**
-     * @return the number of stats
+     * @return the number of get misses
      */
-    int getGetMisses();
+    long getGetMisses();
 
     /**
      * Retrieve stats about the cache. If an argument is specified, a specific category of stats is requested.
      * @param arg a specific extended stat sub-category
-     * @return a map of stats
+     * @return the stats, in the order they're to be listed
      */
-    Map<String, Set<String>> stat(String arg);
+    Stats stat(String arg);
 
     /**
      * Called periodically by the network event loop to process any pending events.
@@ -35,9 +35,13 @@ public interface CacheElement extends Serializable, SizedItem {
 
     long getBlockedUntil();
 
+    boolean isStale();
+
+    boolean isWinTokenSent();
+
     CacheElement append(LocalCacheElement element);
 
     CacheElement prepend(LocalCacheElement element);
 
-    LocalCacheElement.IncrDecrResult add(int mod);
+    LocalCacheElement.IncrDecrResult add(long mod, long casUnique);
 }
@@ -16,11 +16,16 @@
 package com.thimbleware.jmemcached;
 
 import com.thimbleware.jmemcached.storage.CacheStorage;
+import com.thimbleware.jmemcached.storage.bytebuffer.BlockStorageCacheStorage;
+import com.thimbleware.jmemcached.storage.bytebuffer.Partition;
+import com.thimbleware.jmemcached.util.BufferUtils;
+import com.thimbleware.jmemcached.util.NamedThreadFactory;
 import org.jboss.netty.buffer.ChannelBuffers;
 
 import java.io.IOException;
 
 import java.nio.ByteBuffer;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.*;
 
@@ -41,7 +46,7 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
         this.storage = storage;
         deleteQueue = new DelayQueue<DelayedMCElement>();
 
-        scavenger = Executors.newScheduledThreadPool(1);
+        scavenger = Executors.newScheduledThreadPool(1, new NamedThreadFactory("jmemcached-scavenger", false));
         scavenger.scheduleAtFixedRate(new Runnable(){
             public void run() {
                 asyncEventPing();
@@ -49,6 +54,13 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
         }, 10, 2, TimeUnit.SECONDS);
     }
 
+    /**
+     * @return the storage the cache is kept in
+     */
+    public CacheStorage<Key, LocalCacheElement> getStorage() {
+        return storage;
+    }
+
     /**
      * @inheritDoc
      */
@@ -66,11 +78,18 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
 
             // this must go on a queue for processing later...
             deleteQueue.add(new DelayedMCElement(placeHolder));
-        } else
+        } else {
+            long start = System.nanoTime();
             removed = storage.remove(key) != null;
+            storageLatency.record(System.nanoTime() - start);
+        }
 
-        if (removed) return DeleteResponse.DELETED;
-        else return DeleteResponse.NOT_FOUND;
+        if (removed) {
+            deleteHits.increment();
+            return DeleteResponse.DELETED;
+        }
+        deleteMisses.increment();
+        return DeleteResponse.NOT_FOUND;
 
     }
 
@@ -79,8 +98,10 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
      */
     public StoreResponse add(LocalCacheElement e) {
         final long origCasUnique = e.getCasUnique();
-        e.setCasUnique(casCounter.getAndIncrement());
+        e.setCasUnique(casCounter.next(e.getKey()));
+        long start = System.nanoTime();
         final boolean stored = storage.putIfAbsent(e.getKey(), e) == null;
+        storageLatency.record(System.nanoTime() - start);
         // we should restore the former cas so that the object isn't left dirty
         if (!stored) {
             e.setCasUnique(origCasUnique);
@@ -92,34 +113,73 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
      * @inheritDoc
      */
     public StoreResponse replace(LocalCacheElement e) {
-        return storage.replace(e.getKey(), e) != null ? StoreResponse.STORED : StoreResponse.NOT_STORED;
+        e.setCasUnique(casCounter.next(e.getKey()));
+        long start = System.nanoTime();
+        boolean replaced = storage.replace(e.getKey(), e) != null;
+        storageLatency.record(System.nanoTime() - start);
+        return replaced ? StoreResponse.STORED : StoreResponse.NOT_STORED;
     }
 
     /**
      * @inheritDoc
      */
     public StoreResponse append(LocalCacheElement element) {
-        LocalCacheElement old = storage.get(element.getKey());
-        if (old == null || isBlocked(old) || isExpired(old)) {
-            getMisses.incrementAndGet();
-            return StoreResponse.NOT_FOUND;
-        }
-        else {
-            return storage.replace(old.getKey(), old, old.append(element)) ? StoreResponse.STORED : StoreResponse.NOT_STORED;
-        }
+        return concat(element, new Append(element));
     }
 
     /**
      * @inheritDoc
      */
     public StoreResponse prepend(LocalCacheElement element) {
-        LocalCacheElement old = storage.get(element.getKey());
-        if (old == null || isBlocked(old) || isExpired(old)) {
-            getMisses.incrementAndGet();
-            return StoreResponse.NOT_FOUND;
+        return concat(element, new Prepend(element));
+    }
+
+    private StoreResponse concat(LocalCacheElement element, CacheStorage.ValueUpdate<LocalCacheElement> update) {
+        long start = System.nanoTime();
+        LocalCacheElement updated = storage.computeIfPresent(element.getKey(), update);
+        storageLatency.record(System.nanoTime() - start);
+        return updated == null ? StoreResponse.NOT_FOUND : StoreResponse.STORED;
+    }
+
+    /**
+     * Adds to the end of a value, under the storage's lock for the key.
+     */
+    private final class Append implements CacheStorage.ValueAppend<LocalCacheElement> {
+        final LocalCacheElement element;
+
+        Append(LocalCacheElement element) {
+            this.element = element;
+        }
+
+        public int appendedBytes() {
+            return element.size();
+        }
+
+        public LocalCacheElement apply(LocalCacheElement current) {
+            if (isBlocked(current) || isExpired(current)) return null;
+
+            LocalCacheElement appended = current.append(element);
+            appended.setCasUnique(casCounter.next(current.getKey()));
+            return appended;
+        }
+    }
+
+    /**
+     * Adds to the start of a value, under the storage's lock for the key.
+     */
+    private final class Prepend implements CacheStorage.ValueUpdate<LocalCacheElement> {
+        final LocalCacheElement element;
+
+        Prepend(LocalCacheElement element) {
+            this.element = element;
         }
-        else {
-            return storage.replace(old.getKey(), old, old.prepend(element)) ? StoreResponse.STORED : StoreResponse.NOT_STORED;
+
+        public LocalCacheElement apply(LocalCacheElement current) {
+            if (isBlocked(current) || isExpired(current)) return null;
+
+            LocalCacheElement prepended = current.prepend(element);
+            prepended.setCasUnique(casCounter.next(current.getKey()));
+            return prepended;
         }
     }
 
@@ -127,11 +187,15 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
      * @inheritDoc
      */
     public StoreResponse set(LocalCacheElement e) {
-        setCmds.incrementAndGet();//update stats
+        setCmds.increment();//update stats
+        HotKeyTracker hot = hotKeys;
+        if (hot != null) hot.offer(e.getKey());
 
-        e.setCasUnique(casCounter.getAndIncrement());
+        e.setCasUnique(casCounter.next(e.getKey()));
 
+        long start = System.nanoTime();
         storage.put(e.getKey(), e);
+        storageLatency.record(System.nanoTime() - start);
 
         return StoreResponse.STORED;
     }
@@ -140,23 +204,42 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
      * @inheritDoc
      */
     public StoreResponse cas(Long cas_key, LocalCacheElement e) {
+        return cas(cas_key, e, false);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public StoreResponse cas(Long cas_key, LocalCacheElement e, boolean invalidate) {
         // have to get the element
+        long start = System.nanoTime();
         LocalCacheElement element = storage.get(e.getKey());
+        storageLatency.record(System.nanoTime() - start);
         if (element == null || isBlocked(element)) {
-            getMisses.incrementAndGet();
+            casMisses.increment();
             return StoreResponse.NOT_FOUND;
         }
 
-        if (element.getCasUnique() == cas_key) {
+        // an older cas with invalidate stores the element regardless, but stale; it still counts as a bad value.
+        // Uniques only go up for a key, so an older one is a smaller one
+        boolean stale = invalidate && cas_key < element.getCasUnique();
+        if (element.getCasUnique() == cas_key || stale) {
             // casUnique matches, now set the element
-        	e.setCasUnique(casCounter.getAndIncrement());
-            if (storage.replace(e.getKey(), element, e)) return StoreResponse.STORED;
-            else {
-                getMisses.incrementAndGet();
+            if (stale) e.markStale();
+        	e.setCasUnique(casCounter.next(e.getKey()));
+            start = System.nanoTime();
+            boolean replaced = storage.replace(e.getKey(), element, e);
+            storageLatency.record(System.nanoTime() - start);
+            if (replaced) {
+                (stale ? casBadval : casHits).increment();
+                return StoreResponse.STORED;
+            } else {
+                casMisses.increment();
                 return StoreResponse.NOT_FOUND;
             }
         } else {
             // cas didn't match; someone else beat us to it
+            casBadval.increment();
             return StoreResponse.EXISTS;
         }
     }
@@ -164,17 +247,173 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
     /**
      * @inheritDoc
      */
-    public Integer get_add(Key key, int mod) {
-        LocalCacheElement old = storage.get(key);
-        if (old == null || isBlocked(old) || isExpired(old)) {
-            getMisses.incrementAndGet();
-            return null;
-        } else {
-            LocalCacheElement.IncrDecrResult result = old.add(mod);
-            return storage.replace(old.getKey(), old, result.replace) ? result.oldValue : null;
+    public Long get_add(Key key, long mod) {
+        return get_add(key, mod, -1, -1, 0);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Long get_add(Key key, long mod, long expire, long vivifyExpire, long initial) {
+        return add(key, new IncrDecr(mod, expire, -1), vivifyExpire, initial);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public MetaArithmeticResponse meta_arithmetic(Key key, long mod, long expire, long vivifyExpire, long initial, long cas_key) {
+        IncrDecr incrDecr = new IncrDecr(mod, expire, cas_key);
+        Long value = add(key, incrDecr, vivifyExpire, initial);
+        if (incrDecr.mismatch) return new MetaArithmeticResponse(StoreResponse.EXISTS, null);
+        return new MetaArithmeticResponse(value == null ? StoreResponse.NOT_FOUND : StoreResponse.STORED, value);
+    }
+
+    private Long add(Key key, IncrDecr incrDecr, long vivifyExpire, long initial) {
+        long mod = incrDecr.mod;
+        // creating the counter is a compare-and-replace; if we lose a race, the winner's counter is added to instead
+        for (;;) {
+            long start = System.nanoTime();
+            LocalCacheElement updated = storage.computeIfPresent(key, incrDecr);
+            storageLatency.record(System.nanoTime() - start);
+            if (updated != null) {
+                (mod < 0 ? decrHits : incrHits).increment();
+                return incrDecr.value;
+            }
+
+            if (incrDecr.mismatch) {
+                casBadval.increment();
+                return null;
+            }
+
+            if (vivifyExpire == -1) {
+                (mod < 0 ? decrMisses : incrMisses).increment();
+                return null;
+            }
+
+            LocalCacheElement counter = new LocalCacheElement(key, 0, vivifyExpire, casCounter.next(key));
+            counter.setData(BufferUtils.ultoa(initial));
+
+            LocalCacheElement old = storage.get(key);
+            boolean stored;
+            if (old == null) stored = storage.putIfAbsent(key, counter) == null;
+            else stored = (isBlocked(old) || isExpired(old)) && storage.replace(key, old, counter);
+            if (stored) {
+                (mod < 0 ? decrMisses : incrMisses).increment();
+                return initial;
+            }
         }
     }
 
+    /**
+     * Adds to a counter in place, under the storage's lock for the key, so the cas unique is checked under it too.
+     */
+    private final class IncrDecr implements CacheStorage.ValueUpdate<LocalCacheElement> {
+        final long mod;
+        final long expire;
+        final long casKey;
+        long value;
+        boolean mismatch;
+
+        IncrDecr(long mod, long expire, long casKey) {
+            this.mod = mod;
+            this.expire = expire;
+            this.casKey = casKey;
+        }
+
+        public LocalCacheElement apply(LocalCacheElement current) {
+            if (isBlocked(current) || isExpired(current)) return null;
+
+            mismatch = casKey != -1 && current.getCasUnique() != casKey;
+            if (mismatch) return null;
+
+            LocalCacheElement.IncrDecrResult result = current.add(mod, casCounter.next(current.getKey()));
+            if (expire != -1) result.replace.setExpire(expire);
+            value = result.value;
+            return result.replace;
+        }
+    }
+
+
+    /**
+     * @inheritDoc
+     */
+    public MetaGetResponse<LocalCacheElement> meta_get(Key key, long expire, long vivifyExpire, int recacheTtl) {
+        getCmds.increment();//updates stats
+
+        // any change to the element is made with a compare-and-replace; if we lose a race, look again
+        for (;;) {
+            LocalCacheElement old = storage.get(key);
+            if (old == null || isBlocked(old) || isExpired(old)) {
+                if (vivifyExpire == -1) {
+                    getMisses.increment();
+                    return new MetaGetResponse<LocalCacheElement>(null, RecacheToken.NONE);
+                }
+
+                // vivify an empty placeholder; whoever stores it is the one responsible for filling it in
+                LocalCacheElement placeHolder = new LocalCacheElement(key, 0, vivifyExpire, casCounter.next(key));
+                placeHolder.setData(ChannelBuffers.buffer(0));
+                placeHolder.markWinTokenSent();
+
+                boolean stored = old == null ? storage.putIfAbsent(key, placeHolder) == null : storage.replace(key, old, placeHolder);
+                if (stored) {
+                    getMisses.increment();
+                    return new MetaGetResponse<LocalCacheElement>(placeHolder, RecacheToken.WON);
+                }
+                continue;
+            }
+
+            RecacheToken token = RecacheToken.NONE;
+            LocalCacheElement element = old;
+            if (old.isWinTokenSent()) {
+                token = RecacheToken.ALREADY_SENT;
+            } else if (old.isStale() || (recacheTtl != -1 && old.getExpire() != 0 && LocalCacheElement.ttl(old.getExpire()) < recacheTtl)) {
+                token = RecacheToken.WON;
+                element = old.copy();
+                element.markWinTokenSent();
+            }
+
+            if (expire != -1) {
+                if (element == old) element = old.copy();
+                element.setExpire(expire);
+            }
+
+            if (element == old || storage.replace(key, old, element)) {
+                getHits.increment();
+                return new MetaGetResponse<LocalCacheElement>(element, token);
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public DeleteResponse meta_delete(Key key, long cas_key, boolean invalidate, long expire) {
+        for (;;) {
+            LocalCacheElement old = storage.get(key);
+            if (old == null || isBlocked(old) || isExpired(old)) {
+                deleteMisses.increment();
+                return DeleteResponse.NOT_FOUND;
+            }
+            if (cas_key != -1 && old.getCasUnique() != cas_key) {
+                return DeleteResponse.EXISTS;
+            }
+
+            boolean deleted;
+            if (!invalidate) {
+                deleted = storage.remove(key, old);
+            } else {
+                // keep serving the element, but flag it so the next reader is handed the recache token
+                LocalCacheElement stale = old.copy();
+                stale.markStale();
+                if (expire != -1) stale.setExpire(expire);
+                deleted = storage.replace(key, old, stale);
+            }
+            if (deleted) {
+                deleteHits.increment();
+                return DeleteResponse.DELETED;
+            }
+        }
+    }
 
     protected boolean isBlocked(CacheElement e) {
         return e.isBlocked() && e.getBlockedUntil() > Now();
@@ -188,28 +427,32 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
      * @inheritDoc
      */
     public LocalCacheElement[] get(Key ... keys) {
-        getCmds.incrementAndGet();//updates stats
+        getCmds.increment();//updates stats
+        HotKeyTracker hot = hotKeys;
+        if (hot != null) {
+            for (Key key : keys) hot.offer(key);
+        }
 
         LocalCacheElement[] elements = new LocalCacheElement[keys.length];
-        int x = 0;
         int hits = 0;
         int misses = 0;
-        for (Key key : keys) {
-            LocalCacheElement e = storage.get(key);
+
+        // resolve the whole batch in one pass, so the storage can group lookups under its locks
+        long start = System.nanoTime();
+        storage.getMulti(keys, elements);
+        storageLatency.record(System.nanoTime() - start);
+        for (int x = 0; x < elements.length; x++) {
+            LocalCacheElement e = elements[x];
             if (e == null || isExpired(e) || e.isBlocked()) {
                 misses++;
 
                 elements[x] = null;
             } else {
                 hits++;
-
-                elements[x] = e;
             }
-            x++;
-
         }
-        getMisses.addAndGet(misses);
-        getHits.addAndGet(hits);
+        getMisses.add(misses);
+        getHits.add(hits);
 
         return elements;
 
@@ -271,6 +514,52 @@ public final class CacheImpl extends AbstractCache<LocalCacheElement> implements
         return storage.getMemoryUsed();
     }
 
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public long getEvictions() {
+        return storage.getEvictions();
+    }
+
+    /**
+     * The block store's partitions, numbered from 0, stand in for memcached's slabs: "slabs" gives each one's block
+     * usage and fragmentation, "items" its item count and how well its hash buckets spread the keys.
+     */
+    @Override
+    protected void storageStat(String arg, Stats result) {
+        if (!(storage instanceof BlockStorageCacheStorage)) return;
+
+        Partition[] partitions = ((BlockStorageCacheStorage) storage).getPartitions();
+        for (int i = 0; i < partitions.length; i++) {
+            Partition partition = partitions[i];
+            if (arg.equals("slabs")) {
+                long blocks = partition.getBlockCount();
+                long free = partition.getFreeBlocks();
+                long largestFreeRun = partition.getLargestFreeRun();
+                result.add(i + ":chunk_size", partition.getBlockSizeBytes());
+                result.add(i + ":total_chunks", blocks);
+                result.add(i + ":used_chunks", blocks - free);
+                result.add(i + ":free_chunks", free);
+                result.add(i + ":largest_free_run", largestFreeRun);
+                result.add(i + ":fragmentation", ratio(free == 0 ? 0 : 1 - (double) largestFreeRun / free));
+                result.add(i + ":alloc_failures", partition.getAllocationFailures());
+            } else {
+                result.add("items:" + i + ":number", partition.getNumberItems());
+                result.add("items:" + i + ":buckets_used", partition.getUsedBuckets());
+                result.add("items:" + i + ":avg_chain_length", ratio(partition.getAverageChainLength()));
+            }
+        }
+        if (arg.equals("slabs")) {
+            result.add("active_slabs", partitions.length);
+            result.add("total_malloced", storage.getMemoryCapacity());
+        }
+    }
+
+    private static String ratio(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
     /**
      * @inheritDoc
      */
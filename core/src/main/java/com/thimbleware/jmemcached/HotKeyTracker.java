@@ -0,0 +1,133 @@
+package com.thimbleware.jmemcached;
+
+import com.thimbleware.jmemcached.util.Stripes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the most requested keys, from a sample of the requests, in bounded memory.
+ * <p/>
+ * This is the space-saving algorithm: a fixed number of counters, and a sampled key without one takes over the
+ * counter of the least requested key, carrying on from its count. A key requested more often than one in
+ * capacity samples is sure to hold a counter, and any count is over by at most the error reported alongside it.
+ * <p/>
+ * Requests which aren't sampled cost a bump of a per thread counter; sampled ones take a lock, so the sample rate
+ * keeps the lock out of the way.
+ */
+public final class HotKeyTracker {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * A key's estimated number of requests.
+     */
+    public static final class HotKey {
+        public final Key key;
+        /**
+         * The estimated number of requests, scaled up from the sample.
+         */
+        public final long count;
+        /**
+         * How far over the count may be.
+         */
+        public final long error;
+
+        HotKey(Key key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    private static final class Counter {
+        final Key key;
+        long count;
+        long error;
+
+        Counter(Key key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    private final int capacity;
+    private final int sampleRate;
+
+    // plain ints: two threads sharing a stripe lose the odd tick, which only shifts when the next sample is taken
+    private final int[] ticks = new int[Stripes.length(Stripes.FOR_THREADS)];
+
+    private final Map<Key, Counter> counters;
+
+    /**
+     * @param capacity the number of keys to track
+     * @param sampleRate look at one in this many requests
+     */
+    public HotKeyTracker(int capacity, int sampleRate) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        if (sampleRate <= 0) throw new IllegalArgumentException("sample rate must be positive");
+        this.capacity = capacity;
+        this.sampleRate = sampleRate;
+        counters = new HashMap<Key, Counter>(capacity * 2);
+    }
+
+    /**
+     * Count a request for the key, if it falls in the sample.
+     */
+    public void offer(Key key) {
+        if (sampleRate > 1) {
+            int tick = Stripes.cell(Stripes.forThread(Stripes.FOR_THREADS));
+            if (++ticks[tick] < sampleRate) return;
+            ticks[tick] = 0;
+        }
+        sample(key);
+    }
+
+    private synchronized void sample(Key key) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count++;
+            return;
+        }
+
+        long count = 0;
+        if (counters.size() >= capacity) {
+            Counter min = null;
+            for (Counter candidate : counters.values()) {
+                if (min == null || candidate.count < min.count) min = candidate;
+            }
+            counters.remove(min.key);
+            count = min.count;
+        }
+        // the key may point into a network buffer, which will be reused
+        Key copy = new Key(key.bytes.copy(0, key.bytes.capacity()));
+        counters.put(copy, new Counter(copy, count + 1, count));
+    }
+
+    /**
+     * @return the tracked keys, most requested first
+     */
+    public synchronized List<HotKey> top() {
+        List<HotKey> top = new ArrayList<HotKey>(counters.size());
+        for (Counter counter : counters.values())
+            top.add(new HotKey(counter.key, counter.count * sampleRate, counter.error * sampleRate));
+        Collections.sort(top, new Comparator<HotKey>() {
+            public int compare(HotKey a, HotKey b) {
+                return a.count < b.count ? 1 : a.count == b.count ? 0 : -1;
+            }
+        });
+        return top;
+    }
+
+    /**
+     * Forget every key, so that keys which have gone quiet don't hold their counters.
+     */
+    public synchronized void reset() {
+        counters.clear();
+    }
+}
@@ -18,6 +18,7 @@ package com.thimbleware.jmemcached;
 import com.thimbleware.jmemcached.util.BufferUtils;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.CompositeChannelBuffer;
 
 import java.io.Externalizable;
 import java.io.IOException;
@@ -30,6 +31,15 @@ import java.nio.ByteBuffer;
  * Represents information about a cache entry.
  */
 public final class LocalCacheElement implements CacheElement {
+    private static final int STATE_STALE = 1;
+    private static final int STATE_WIN_TOKEN_SENT = 2;
+
+    /**
+     * Appends and prepends join the pieces of a value into a composite buffer rather than copying them into a new
+     * one each time; once a value is in more than this many pieces, it's copied into one.
+     */
+    private static final int MAX_DATA_PIECES = 64;
+
     private long expire ;
     private int flags;
     private ChannelBuffer data;
@@ -37,6 +47,8 @@ public final class LocalCacheElement implements CacheElement {
     private long casUnique = 0L;
     private boolean blocked = false;
     private long blockedUntil;
+    private boolean stale = false;
+    private boolean winTokenSent = false;
 
     public LocalCacheElement() {
     }
@@ -59,76 +71,100 @@ public final class LocalCacheElement implements CacheElement {
         return (int) (System.currentTimeMillis() / 1000);
     }
 
+    /**
+     * Convert an expiry as given on the wire (in seconds; relative to now if less than thirty days, otherwise
+     * absolute) into the representation kept on the element.
+     * @param seconds the protocol expiry
+     * @return the element expiry, 0 meaning never
+     */
+    public static long expiry(int seconds) {
+        long expire = seconds * 1000L;
+        return expire != 0 && expire < THIRTY_DAYS ? Now() + expire : expire;
+    }
+
+    /**
+     * The inverse of expiry(): the time (in seconds) an element with the given expiry has left to live.
+     * @param expire the element expiry
+     * @return the remaining seconds, or -1 if the element never expires
+     */
+    public static int ttl(long expire) {
+        if (expire == 0) return -1;
+        long remaining = (expire - Now()) / 1000;
+        return remaining < 0 ? 0 : (int) remaining;
+    }
+
     public int size() {
         return getData().capacity();
     }
 
+    /**
+     * @return a copy of this element sharing the same data, used to replace it in the store with changed metadata
+     */
+    public LocalCacheElement copy() {
+        LocalCacheElement copy = new LocalCacheElement(key, flags, expire, casUnique);
+        copy.data = data;
+        copy.blocked = blocked;
+        copy.blockedUntil = blockedUntil;
+        copy.stale = stale;
+        copy.winTokenSent = winTokenSent;
+        return copy;
+    }
+
     public LocalCacheElement append(LocalCacheElement appendElement) {
-        int newLength = size() + appendElement.size();
         LocalCacheElement appendedElement = new LocalCacheElement(getKey(), getFlags(), getExpire(), 0L);
-        ChannelBuffer appended = ChannelBuffers.buffer(newLength);
-        ChannelBuffer existing = getData();
-        ChannelBuffer append = appendElement.getData();
-
-        appended.writeBytes(existing);
-        appended.writeBytes(append);
-
-        appended.readerIndex(0);
-
-        existing.readerIndex(0);
-        append.readerIndex(0);
-
-        appendedElement.setData(appended);
+        appendedElement.setData(concat(getData(), appendElement.getData()));
         appendedElement.setCasUnique(appendedElement.getCasUnique() + 1);
 
         return appendedElement;
     }
 
     public LocalCacheElement prepend(LocalCacheElement prependElement) {
-        int newLength = size() + prependElement.size();
-
         LocalCacheElement prependedElement = new LocalCacheElement(getKey(), getFlags(), getExpire(), 0L);
-        ChannelBuffer prepended = ChannelBuffers.buffer(newLength);
-        ChannelBuffer prepend = prependElement.getData();
-        ChannelBuffer existing = getData();
-
-        prepended.writeBytes(prepend);
-        prepended.writeBytes(existing);
-
-        existing.readerIndex(0);
-        prepend.readerIndex(0);
-
-        prepended.readerIndex(0);
-
-        prependedElement.setData(prepended);
+        prependedElement.setData(concat(prependElement.getData(), getData()));
         prependedElement.setCasUnique(prependedElement.getCasUnique() + 1);
 
         return prependedElement;
     }
 
+    /**
+     * Join two values without copying them, unless the result would be in too many pieces.
+     */
+    private static ChannelBuffer concat(ChannelBuffer first, ChannelBuffer second) {
+        // composites flatten the composites they're made of, so a value is never more than one level deep
+        ChannelBuffer joined = ChannelBuffers.wrappedBuffer(first.slice(0, first.capacity()), second.slice(0, second.capacity()));
+        if (joined instanceof CompositeChannelBuffer
+                && ((CompositeChannelBuffer) joined).decompose(0, joined.capacity()).size() > MAX_DATA_PIECES) {
+            return ChannelBuffers.copiedBuffer(joined);
+        }
+        return joined;
+    }
+
     public static class IncrDecrResult {
-        int oldValue;
+        long value;
         LocalCacheElement replace;
 
-        public IncrDecrResult(int oldValue, LocalCacheElement replace) {
-            this.oldValue = oldValue;
+        public IncrDecrResult(long value, LocalCacheElement replace) {
+            this.value = value;
             this.replace = replace;
         }
     }
 
-    public IncrDecrResult add(int mod) {
-        // TODO handle parse failure!
-        int modVal = BufferUtils.atoi(getData()) + mod; // change value
-        if (modVal < 0) {
-            modVal = 0;
-
-        } // check for underflow
-
-        ChannelBuffer newData = BufferUtils.itoa(modVal);
+    /**
+     * Treat the value as an unsigned 64 bit counter, as memcached does: increments wrap around past 2^64 - 1, and
+     * decrements stop at 0.
+     * @param mod the amount to add; negative to decrement
+     * @param casUnique the cas unique for the replacement element
+     * @return the new counter value, and the element holding it
+     * @throws NumberFormatException if the value isn't a decimal counter
+     */
+    public IncrDecrResult add(long mod, long casUnique) {
+        long value = BufferUtils.atoul(getData());
+        long modVal;
+        if (mod >= 0 || Long.MIN_VALUE + value >= Long.MIN_VALUE - mod) modVal = value + mod;
+        else modVal = 0;
 
-        LocalCacheElement replace = new LocalCacheElement(getKey(), getFlags(), getExpire(), 0L);
-        replace.setData(newData);
-        replace.setCasUnique(replace.getCasUnique() + 1);
+        LocalCacheElement replace = new LocalCacheElement(getKey(), getFlags(), getExpire(), casUnique);
+        replace.setData(BufferUtils.ultoa(modVal));
 
         return new IncrDecrResult(modVal, replace);
     }
@@ -142,6 +178,8 @@ public final class LocalCacheElement implements CacheElement {
 
         if (blocked != that.blocked) return false;
         if (blockedUntil != that.blockedUntil) return false;
+        if (stale != that.stale) return false;
+        if (winTokenSent != that.winTokenSent) return false;
         if (casUnique != that.casUnique) return false;
         if (expire != that.expire) return false;
         if (flags != that.flags) return false;
@@ -160,6 +198,8 @@ public final class LocalCacheElement implements CacheElement {
         result = 31 * result + (int) (casUnique ^ (casUnique >>> 32));
         result = 31 * result + (blocked ? 1 : 0);
         result = 31 * result + (int) (blockedUntil ^ (blockedUntil >>> 32));
+        result = 31 * result + (stale ? 1 : 0);
+        result = 31 * result + (winTokenSent ? 1 : 0);
         return result;
     }
 
@@ -196,6 +236,14 @@ public final class LocalCacheElement implements CacheElement {
         return blockedUntil;
     }
 
+    public boolean isStale() {
+        return stale;
+    }
+
+    public boolean isWinTokenSent() {
+        return winTokenSent;
+    }
+
     public void setCasUnique(long casUnique) {
         this.casUnique = casUnique;
     }
@@ -205,6 +253,26 @@ public final class LocalCacheElement implements CacheElement {
         this.blockedUntil = blockedUntil;
     }
 
+    public void setExpire(long expire) {
+        this.expire = expire;
+    }
+
+    /**
+     * Mark the element as invalidated; it is still served, but flagged so clients know to revalidate it.
+     * This starts a new round of revalidation, so the recache token becomes available again.
+     */
+    public void markStale() {
+        this.stale = true;
+        this.winTokenSent = false;
+    }
+
+    /**
+     * Record that a client has been handed the token to recache this element.
+     */
+    public void markWinTokenSent() {
+        this.winTokenSent = true;
+    }
+
 
     public void setData(ChannelBuffer data) {
         data.readerIndex(0);
@@ -226,15 +294,19 @@ public final class LocalCacheElement implements CacheElement {
         localCacheElement.data = in.slice(in.readerIndex(), dataLength);
         in.skipBytes(dataLength);
 
-        localCacheElement.casUnique = in.readInt();
+        localCacheElement.casUnique = in.readLong();
         localCacheElement.blocked = in.readByte() == 1;
         localCacheElement.blockedUntil = in.readLong();
 
+        byte state = in.readByte();
+        localCacheElement.stale = (state & STATE_STALE) != 0;
+        localCacheElement.winTokenSent = (state & STATE_WIN_TOKEN_SENT) != 0;
+
         return localCacheElement;
     }
 
     public int bufferSize() {
-        return 4 + 8 + 4 + key.bytes.capacity() + 4 + 4 + 4 + data.capacity() + 8 + 1 + 8;
+        return 4 + 8 + 4 + key.bytes.capacity() + 4 + 4 + 4 + data.capacity() + 8 + 1 + 8 + 1;
     }
 
     public void writeToBuffer(ChannelBuffer out) {
@@ -245,9 +317,33 @@ public final class LocalCacheElement implements CacheElement {
         out.writeInt(flags);
         out.writeInt(data.capacity());
         out.writeBytes(data);
+        writeTrailer(out);
+    }
+
+    /**
+     * Bring a buffer holding this element as it was before appendedBytes were added to the end of its data, as
+     * written by writeToBuffer(), up to date, writing only the parts which changed.
+     * @param out the buffer, sized for the element as it is now
+     * @param appendedBytes how many bytes were appended
+     */
+    public void writeAppendToBuffer(ChannelBuffer out, int appendedBytes) {
+        int dataLengthOffset = 4 + 8 + 4 + key.bytes.capacity() + 4;
+        int previousLength = data.capacity() - appendedBytes;
+
+        out.setInt(0, bufferSize());
+        out.setLong(4, expire);
+        out.setInt(dataLengthOffset - 4, flags);
+        out.setInt(dataLengthOffset, data.capacity());
+        out.writerIndex(dataLengthOffset + 4 + previousLength);
+        out.writeBytes(data, previousLength, appendedBytes);
+        writeTrailer(out);
+    }
+
+    private void writeTrailer(ChannelBuffer out) {
         out.writeLong(casUnique);
         out.writeByte(blocked ? 1 : 0);
         out.writeLong(blockedUntil);
+        out.writeByte((stale ? STATE_STALE : 0) | (winTokenSent ? STATE_WIN_TOKEN_SENT : 0));
     }
 
 }
\ No newline at end of file
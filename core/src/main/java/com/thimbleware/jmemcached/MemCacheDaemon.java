@@ -15,20 +15,47 @@
  */
 package com.thimbleware.jmemcached;
 
+import com.thimbleware.jmemcached.jmx.JmxExporter;
+import com.thimbleware.jmemcached.protocol.CommandLatency;
+import com.thimbleware.jmemcached.protocol.ConnectionLimitHandler;
+import com.thimbleware.jmemcached.protocol.ConnectionStatsHandler;
+import com.thimbleware.jmemcached.protocol.IdleConnectionHandler;
+import com.thimbleware.jmemcached.protocol.UnifiedPipelineFactory;
+import com.thimbleware.jmemcached.protocol.WriteBackpressureHandler;
 import com.thimbleware.jmemcached.protocol.binary.MemcachedBinaryPipelineFactory;
 import com.thimbleware.jmemcached.protocol.text.MemcachedPipelineFactory;
+import com.thimbleware.jmemcached.protocol.text.MemcachedUdpFrameHandler;
+import com.thimbleware.jmemcached.protocol.text.MemcachedUdpPipelineFactory;
+import com.thimbleware.jmemcached.util.NamedThreadFactory;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.ServerChannelFactory;
 import org.jboss.netty.channel.group.ChannelGroupFuture;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
 import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
@@ -40,16 +67,68 @@ public class MemCacheDaemon<CACHE_ELEMENT extends CacheElement> {
 
     public static String memcachedVersion = "0.9";
 
+    /**
+     * Default number of network worker threads per available processor.
+     */
+    public static final int DEFAULT_WORKERS_PER_CORE = 2;
+
+    /**
+     * Default length of the queue of accepted connections waiting on the boss; the JVM's own default of 50 is
+     * easily overrun by a burst of clients reconnecting.
+     */
+    public static final int DEFAULT_BACKLOG = 1024;
+
+    /**
+     * The default, and fallback, network transport.
+     */
+    public static final String NIO_TRANSPORT = "nio";
+
+    /**
+     * Default amount of queued output past which a client connection is dropped.
+     */
+    public static final long DEFAULT_MAX_PENDING_WRITE_BYTES = 64 * 1024 * 1024;
+
     private int frameSize = 32768 * 1024;
 
     private boolean binary = false;
+    private boolean autoDetectProtocol = false;
     private boolean verbose;
     private int idleTime;
     private InetSocketAddress addr;
+    private final List<InetSocketAddress> extraAddrs = new ArrayList<InetSocketAddress>();
+    private final Map<SocketAddress, ServerChannelFactory> extraListeners = new LinkedHashMap<SocketAddress, ServerChannelFactory>();
     private Cache<CACHE_ELEMENT> cache;
 
+    private int workerCount = Runtime.getRuntime().availableProcessors() * DEFAULT_WORKERS_PER_CORE;
+    private Executor bossExecutor;
+    private Executor workerExecutor;
+    private int slowCommandThreads = 0;
+    private ExecutorService slowCommandExecutor;
+
+    private boolean tcpNoDelay = true;
+    private boolean keepAlive = true;
+    private int sendBufferSize = 65536;
+    private int receiveBufferSize = 65536;
+    private int backlog = DEFAULT_BACKLOG;
+    private int writeBufferHighWaterMark = 64 * 1024;
+    private int writeBufferLowWaterMark = 32 * 1024;
+    private long maxPendingWriteBytes = DEFAULT_MAX_PENDING_WRITE_BYTES;
+    private ChannelHandler[] connectionHandlers;
+    private int maxConnections = 0;
+    private ConnectionLimitHandler connectionLimitHandler;
+    private ConnectionStatsHandler connectionStatsHandler;
+    private final CommandLatency commandLatency = new CommandLatency();
+    private HashedWheelTimer idleTimer;
+
+    private boolean jmx = false;
+    private JmxExporter jmxExporter;
+
+    private String transport = NIO_TRANSPORT;
+    private int udpPort = 0;
+
     private boolean running = false;
     private ServerSocketChannelFactory channelFactory;
+    private DatagramChannelFactory udpChannelFactory;
     private DefaultChannelGroup allChannels;
 
 
@@ -64,42 +143,156 @@ public class MemCacheDaemon<CACHE_ELEMENT extends CacheElement> {
      * Bind the network connection and start the network processing threads.
      */
     public void start() {
-        // TODO provide tweakable options here for passing in custom executors.
-        channelFactory =
-                new NioServerSocketChannelFactory(
-                        Executors.newCachedThreadPool(),
-                        Executors.newCachedThreadPool());
+        // each worker is a long running task, so a fixed pool of workerCount threads is all the workers ever need
+        if (bossExecutor == null)
+            bossExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("jmemcached-boss", false));
+        if (workerExecutor == null)
+            workerExecutor = Executors.newFixedThreadPool(workerCount, new NamedThreadFactory("jmemcached-worker", false));
+
+        if (slowCommandExecutor == null && slowCommandThreads > 0)
+            slowCommandExecutor = Executors.newFixedThreadPool(slowCommandThreads, new NamedThreadFactory("jmemcached-slow", false));
+
+        channelFactory = createChannelFactory(bossExecutor, workerExecutor, workerCount);
 
         allChannels = new DefaultChannelGroup("jmemcachedChannelGroup");
 
         ServerBootstrap bootstrap = new ServerBootstrap(channelFactory);
 
+        connectionHandlers = createConnectionHandlers();
+
         ChannelPipelineFactory pipelineFactory;
-        if (binary)
+        if (autoDetectProtocol)
+            pipelineFactory = new UnifiedPipelineFactory(connectionHandlers,
+                    createMemcachedPipelineFactory(cache, memcachedVersion, verbose, idleTime, frameSize, allChannels),
+                    createMemcachedBinaryPipelineFactory(cache, memcachedVersion, verbose, idleTime, allChannels));
+        else if (binary)
             pipelineFactory = createMemcachedBinaryPipelineFactory(cache, memcachedVersion, verbose, idleTime, allChannels);
         else
             pipelineFactory = createMemcachedPipelineFactory(cache, memcachedVersion, verbose, idleTime, frameSize, allChannels);
 
         bootstrap.setPipelineFactory(pipelineFactory);
-        bootstrap.setOption("sendBufferSize", 65536 );
-        bootstrap.setOption("receiveBufferSize", 65536);
+        bootstrap.setOption("backlog", backlog);
+        bootstrap.setOption("reuseAddress", true);
+        // set on the listening socket too, so windows above 64k can be negotiated during the handshake
+        bootstrap.setOption("receiveBufferSize", receiveBufferSize);
+        bootstrap.setOption("child.tcpNoDelay", tcpNoDelay);
+        bootstrap.setOption("child.keepAlive", keepAlive);
+        bootstrap.setOption("child.sendBufferSize", sendBufferSize);
+        bootstrap.setOption("child.receiveBufferSize", receiveBufferSize);
+        bootstrap.setOption("child.writeBufferHighWaterMark", writeBufferHighWaterMark);
+        bootstrap.setOption("child.writeBufferLowWaterMark", writeBufferLowWaterMark);
+
+        // every listener gets its own boss thread, which spreads the accept load
+        List<InetSocketAddress> addrs = new ArrayList<InetSocketAddress>();
+        addrs.add(addr);
+        addrs.addAll(extraAddrs);
+        for (InetSocketAddress listenAddr : addrs) {
+            Channel serverChannel = bootstrap.bind(listenAddr);
+            allChannels.add(serverChannel);
+
+            log.info("Listening on " + String.valueOf(listenAddr.getHostName()) + ":" + listenAddr.getPort() + " with " + workerCount + " workers");
+        }
 
-        Channel serverChannel = bootstrap.bind(addr);
-        allChannels.add(serverChannel);
+        if (udpPort > 0) startUdp(addrs);
 
-        log.info("Listening on " + String.valueOf(addr.getHostName()) + ":" + addr.getPort());
+        // listeners on other transports share the same pipelines, and so the same cache and connection limits
+        for (Map.Entry<SocketAddress, ServerChannelFactory> listener : extraListeners.entrySet()) {
+            ServerBootstrap extraBootstrap = new ServerBootstrap(listener.getValue());
+            extraBootstrap.setPipelineFactory(pipelineFactory);
+            allChannels.add(extraBootstrap.bind(listener.getKey()));
+
+            log.info("Listening on " + listener.getKey());
+        }
+
+        if (jmx) registerMBeans();
 
         running = true;
     }
 
+    /**
+     * Register the statistics MBeans with the platform MBean server, by the port of the main listening address. A
+     * failure is logged; the daemon runs on without them.
+     */
+    private void registerMBeans() {
+        jmxExporter = new JmxExporter(ManagementFactory.getPlatformMBeanServer());
+        try {
+            jmxExporter.register(this, String.valueOf(addr.getPort()));
+        } catch (JMException e) {
+            log.warn("unable to register MBeans", e);
+        }
+    }
+
+    /**
+     * Bind a datagram channel on the UDP port of each listening address. The datagram worker gets its own thread
+     * pool, since the TCP workers keep every thread of theirs busy.
+     */
+    private void startUdp(List<InetSocketAddress> addrs) {
+        udpChannelFactory = new NioDatagramChannelFactory(Executors.newCachedThreadPool(new NamedThreadFactory("jmemcached-udp", false)));
+
+        ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(udpChannelFactory);
+        bootstrap.setPipelineFactory(new MemcachedUdpPipelineFactory(cache, memcachedVersion, verbose, idleTime, frameSize, allChannels, commandLatency));
+        bootstrap.setOption("receiveBufferSize", receiveBufferSize);
+        bootstrap.setOption("sendBufferSize", sendBufferSize);
+        bootstrap.setOption("receiveBufferSizePredictorFactory", new FixedReceiveBufferSizePredictorFactory(MemcachedUdpFrameHandler.MAX_REQUEST_BYTES));
+
+        for (InetSocketAddress listenAddr : addrs) {
+            InetSocketAddress udpAddr = new InetSocketAddress(listenAddr.getAddress(), udpPort);
+            Channel channel = bootstrap.bind(udpAddr);
+            allChannels.add(channel);
+
+            log.info("Listening for UDP on " + String.valueOf(udpAddr.getHostName()) + ":" + udpPort);
+        }
+    }
+
+    /**
+     * Create the server channel factory for the configured transport, falling back to NIO if that transport can't
+     * be loaded on this platform.
+     */
+    protected ServerSocketChannelFactory createChannelFactory(Executor bossExecutor, Executor workerExecutor, int workerCount) {
+        if (!NIO_TRANSPORT.equals(transport)) {
+            try {
+                Class<? extends ServerSocketChannelFactory> factoryClass =
+                        Class.forName(transport).asSubclass(ServerSocketChannelFactory.class);
+                Constructor<? extends ServerSocketChannelFactory> constructor =
+                        factoryClass.getConstructor(Executor.class, Executor.class, int.class);
+                ServerSocketChannelFactory factory = constructor.newInstance(bossExecutor, workerExecutor, workerCount);
+                log.info("Using transport " + transport);
+                return factory;
+            } catch (Throwable e) {
+                log.warn("transport " + transport + " unavailable, falling back to NIO", e);
+            }
+        }
+        return new NioServerSocketChannelFactory(bossExecutor, workerExecutor, workerCount);
+    }
+
+    /**
+     * Create the sharable handlers which go at the head of every connection's pipeline.
+     */
+    protected ChannelHandler[] createConnectionHandlers() {
+        List<ChannelHandler> handlers = new ArrayList<ChannelHandler>();
+        // the limit handler has to come before the stats handler, so rejected connections are never counted as current
+        if (maxConnections > 0) {
+            connectionLimitHandler = new ConnectionLimitHandler(maxConnections);
+            handlers.add(connectionLimitHandler);
+        }
+        connectionStatsHandler = new ConnectionStatsHandler();
+        handlers.add(connectionStatsHandler);
+        if (idleTime > 0) {
+            idleTimer = new HashedWheelTimer(new NamedThreadFactory("jmemcached-idle-timer", true));
+            handlers.add(new IdleConnectionHandler(idleTimer, idleTime));
+        }
+        handlers.add(new WriteBackpressureHandler(maxPendingWriteBytes));
+        return handlers.toArray(new ChannelHandler[handlers.size()]);
+    }
+
     protected ChannelPipelineFactory createMemcachedBinaryPipelineFactory(
             Cache cache, String memcachedVersion, boolean verbose, int idleTime, DefaultChannelGroup allChannels) {
-        return new MemcachedBinaryPipelineFactory(cache, memcachedVersion, verbose, idleTime, allChannels);
+        return new MemcachedBinaryPipelineFactory(cache, memcachedVersion, verbose, idleTime, allChannels, slowCommandExecutor, connectionHandlers, commandLatency);
     }
 
     protected ChannelPipelineFactory createMemcachedPipelineFactory(
             Cache cache, String memcachedVersion, boolean verbose, int idleTime, int receiveBufferSize, DefaultChannelGroup allChannels) {
-        return new MemcachedPipelineFactory(cache, memcachedVersion, verbose, idleTime, receiveBufferSize, allChannels);
+        return new MemcachedPipelineFactory(cache, memcachedVersion, verbose, idleTime, receiveBufferSize, allChannels, slowCommandExecutor, connectionHandlers, commandLatency);
     }
 
     public void stop() {
@@ -110,6 +303,11 @@ public class MemCacheDaemon<CACHE_ELEMENT extends CacheElement> {
         if (!future.isCompleteSuccess()) {
             throw new RuntimeException("failure to complete closing all network channels");
         }
+        if (jmxExporter != null) {
+            jmxExporter.unregister();
+            jmxExporter = null;
+        }
+
         log.info("channels closed, freeing cache storage");
         try {
             cache.close();
@@ -117,6 +315,23 @@ public class MemCacheDaemon<CACHE_ELEMENT extends CacheElement> {
             throw new RuntimeException("exception while closing storage", e);
         }
         channelFactory.releaseExternalResources();
+        if (udpChannelFactory != null) {
+            udpChannelFactory.releaseExternalResources();
+            udpChannelFactory = null;
+        }
+        for (ServerChannelFactory listenerFactory : extraListeners.values()) {
+            listenerFactory.releaseExternalResources();
+        }
+        if (idleTimer != null) {
+            idleTimer.stop();
+            idleTimer = null;
+        }
+        bossExecutor = null;
+        workerExecutor = null;
+        if (slowCommandExecutor != null) {
+            slowCommandExecutor.shutdown();
+            slowCommandExecutor = null;
+        }
 
         running = false;
         log.info("successfully shut down");
@@ -126,14 +341,252 @@ public class MemCacheDaemon<CACHE_ELEMENT extends CacheElement> {
         this.verbose = verbose;
     }
 
+    /**
+     * @param idleTime how long, in seconds, a connection may go without traffic before it is closed; 0 or less, the
+     * default, leaves idle connections open
+     */
     public void setIdleTime(int idleTime) {
         this.idleTime = idleTime;
     }
 
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @param frameSize the largest value a text protocol storage command may carry, in bytes; larger ones get a
+     * CLIENT_ERROR and their data is dropped. 32M by default
+     */
+    public void setFrameSize(int frameSize) {
+        if (frameSize < 0) throw new IllegalArgumentException("frame size must not be negative");
+        this.frameSize = frameSize;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections the most client connections open at once; further ones are closed as soon as they are
+     * accepted. 0, the default, is no limit
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections < 0) throw new IllegalArgumentException("max connections must not be negative");
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the number of connections turned away by the connection limit
+     */
+    public long getRejectedConnections() {
+        return connectionLimitHandler == null ? 0 : connectionLimitHandler.getRejectedConnections();
+    }
+
+    /**
+     * @return the connection and byte counters shared by every connection, or null before the daemon is started
+     */
+    public ConnectionStatsHandler getConnectionStats() {
+        return connectionStatsHandler;
+    }
+
+    /**
+     * @return how long each command has taken to run, over every protocol the daemon serves
+     */
+    public CommandLatency getCommandLatency() {
+        return commandLatency;
+    }
+
     public void setAddr(InetSocketAddress addr) {
         this.addr = addr;
     }
 
+    /**
+     * Listen on another address as well as the one given to setAddr, e.g. a second interface on the same port.
+     * @param addr the additional address
+     */
+    public void addListenAddress(InetSocketAddress addr) {
+        extraAddrs.add(addr);
+    }
+
+    /**
+     * Serve the same protocol on an address of some other transport, e.g. a unix domain socket for co-located
+     * clients, given a netty transport which provides one; or netty's in-VM transport, with a
+     * {@link org.jboss.netty.channel.local.LocalAddress}, for clients embedded in the same JVM. The socket options
+     * set on this daemon apply to its TCP listeners only.
+     *
+     * @param channelFactory the transport's server channel factory, released when the daemon stops
+     * @param address the address to bind, of the type the transport expects
+     */
+    public void addListener(ServerChannelFactory channelFactory, SocketAddress address) {
+        extraListeners.put(address, channelFactory);
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Whether to disable Nagle's algorithm on client connections. On by default: with Nagle a small response can
+     * sit waiting on the client's delayed ack for tens of milliseconds.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Whether to enable TCP keep-alive on client connections, so connections from clients which went away
+     * without closing are eventually reaped. On by default.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * @param sendBufferSize the socket send buffer size (SO_SNDBUF) for client connections, in bytes
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize <= 0) throw new IllegalArgumentException("send buffer size must be positive");
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * @param receiveBufferSize the socket receive buffer size (SO_RCVBUF) for client connections, in bytes
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize <= 0) throw new IllegalArgumentException("receive buffer size must be positive");
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * @param backlog the maximum length of the queue of connections accepted by the kernel but not yet by the
+     * daemon; defaults to DEFAULT_BACKLOG
+     */
+    public void setBacklog(int backlog) {
+        if (backlog <= 0) throw new IllegalArgumentException("backlog must be positive");
+        this.backlog = backlog;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * Set the output queue sizes between which a connection is throttled: once more than high bytes of responses
+     * are waiting to go out, the daemon stops reading commands from that connection until fewer than low are left.
+     * @param low the low water mark, in bytes; 32k by default
+     * @param high the high water mark, in bytes; 64k by default
+     */
+    public void setWriteBufferWaterMarks(int low, int high) {
+        if (low < 0 || high < low) throw new IllegalArgumentException("water marks must satisfy 0 <= low <= high");
+        this.writeBufferLowWaterMark = low;
+        this.writeBufferHighWaterMark = high;
+    }
+
+    public long getMaxPendingWriteBytes() {
+        return maxPendingWriteBytes;
+    }
+
+    /**
+     * Set the amount of queued output past which a connection is dropped. This catches the clients throttling
+     * can't, e.g. one which sends a single huge multiget and then stops reading.
+     * @param maxPendingWriteBytes the limit in bytes, 0 for none; defaults to DEFAULT_MAX_PENDING_WRITE_BYTES
+     */
+    public void setMaxPendingWriteBytes(long maxPendingWriteBytes) {
+        if (maxPendingWriteBytes < 0) throw new IllegalArgumentException("max pending write bytes must not be negative");
+        this.maxPendingWriteBytes = maxPendingWriteBytes;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * Select the network transport. Besides the default "nio", this takes the class name of a
+     * ServerSocketChannelFactory with a (boss Executor, worker Executor, int workerCount) constructor, which is the
+     * way in for a native (e.g. epoll) transport. If the class can't be loaded or constructed, which is to be
+     * expected for a native transport on the wrong platform, the daemon logs a warning and uses NIO.
+     * @param transport "nio" or a ServerSocketChannelFactory class name
+     */
+    public void setTransport(String transport) {
+        if (transport == null) throw new IllegalArgumentException("transport must not be null");
+        this.transport = transport;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Set the number of network worker (I/O) threads. Each connection is bound to one worker for its lifetime.
+     * @param workerCount the number of workers; defaults to DEFAULT_WORKERS_PER_CORE per available processor
+     */
+    public void setWorkerCount(int workerCount) {
+        if (workerCount <= 0) throw new IllegalArgumentException("worker count must be positive");
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Provide the executor which runs the boss (connection accepting) threads, in place of the default named
+     * cached pool.
+     * @param bossExecutor the executor; it is shut down when the daemon stops
+     */
+    public void setBossExecutor(Executor bossExecutor) {
+        this.bossExecutor = bossExecutor;
+    }
+
+    /**
+     * Provide the executor which runs the network worker threads, in place of the default named fixed pool. This
+     * is the hook for pinning workers to cores: supply an executor whose thread factory sets CPU affinity. It must
+     * be able to run at least workerCount tasks at once.
+     * @param workerExecutor the executor; it is shut down when the daemon stops
+     */
+    public void setWorkerExecutor(Executor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+    }
+
+    public int getSlowCommandThreads() {
+        return slowCommandThreads;
+    }
+
+    /**
+     * Set the number of threads which run the slow commands (stats, flush_all, append and prepend) off the network
+     * workers, so one of them can't stall every other connection on its worker. Responses stay in order on each
+     * connection.
+     * @param slowCommandThreads the number of threads; 0, the default, runs every command on the network worker
+     */
+    public void setSlowCommandThreads(int slowCommandThreads) {
+        if (slowCommandThreads < 0) throw new IllegalArgumentException("slow command thread count must not be negative");
+        this.slowCommandThreads = slowCommandThreads;
+    }
+
+    /**
+     * Provide the executor which runs slow commands, in place of the pool sized by setSlowCommandThreads.
+     * @param slowCommandExecutor the executor; it is shut down when the daemon stops
+     */
+    public void setSlowCommandExecutor(ExecutorService slowCommandExecutor) {
+        this.slowCommandExecutor = slowCommandExecutor;
+    }
+
     public Cache<CACHE_ELEMENT> getCache() {
         return cache;
     }
@@ -153,4 +606,40 @@ public class MemCacheDaemon<CACHE_ELEMENT extends CacheElement> {
     public void setBinary(boolean binary) {
         this.binary = binary;
     }
+
+    public int getUdpPort() {
+        return udpPort;
+    }
+
+    /**
+     * @param udpPort port to also serve text protocol gets on over UDP, at each listening address; 0, the default,
+     * disables UDP
+     */
+    public void setUdpPort(int udpPort) {
+        this.udpPort = udpPort;
+    }
+
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    /**
+     * Register MBeans for the cache, its storage and the connections with the platform MBean server when the daemon
+     * starts, for monitoring agents which poll JMX. Off by default.
+     */
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public boolean isAutoDetectProtocol() {
+        return autoDetectProtocol;
+    }
+
+    /**
+     * Serve both the text and binary protocols on the same port(s), picking one per connection from the first byte
+     * the client sends. Takes precedence over {@link #setBinary(boolean)}.
+     */
+    public void setAutoDetectProtocol(boolean autoDetectProtocol) {
+        this.autoDetectProtocol = autoDetectProtocol;
+    }
 }
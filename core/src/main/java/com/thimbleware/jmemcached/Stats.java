@@ -0,0 +1,124 @@
+package com.thimbleware.jmemcached;
+
+import java.io.Serializable;
+
+/**
+ * A snapshot of statistics for the stats command: named values in the order they're to be listed.
+ * <p/>
+ * Counters are kept as longs and only turned into text by the encoder, which writes them straight into the
+ * response; the rest are strings. Stats are looked up by name with a linear scan, which suits the few dozen a
+ * snapshot holds and the rare lookups.
+ */
+public final class Stats implements Serializable {
+
+    private static final long serialVersionUID = -3154710524846537868L;
+
+    private String[] names;
+    private String[] texts;
+    private long[] numbers;
+    private int size;
+
+    public Stats() {
+        this(48);
+    }
+
+    /**
+     * @param expected the number of stats expected, so the arrays needn't grow
+     */
+    public Stats(int expected) {
+        names = new String[expected];
+        texts = new String[expected];
+        numbers = new long[expected];
+    }
+
+    public Stats add(String name, long value) {
+        int i = append(name);
+        numbers[i] = value;
+        return this;
+    }
+
+    public Stats add(String name, String value) {
+        int i = append(name);
+        texts[i] = value;
+        return this;
+    }
+
+    /**
+     * Set a stat, replacing its value where it's already there and adding it otherwise.
+     */
+    public Stats set(String name, long value) {
+        int i = indexOf(name);
+        if (i == -1) return add(name, value);
+        texts[i] = null;
+        numbers[i] = value;
+        return this;
+    }
+
+    private int append(String name) {
+        if (size == names.length) {
+            int capacity = Math.max(8, size * 2);
+            String[] newNames = new String[capacity];
+            String[] newTexts = new String[capacity];
+            long[] newNumbers = new long[capacity];
+            System.arraycopy(names, 0, newNames, 0, size);
+            System.arraycopy(texts, 0, newTexts, 0, size);
+            System.arraycopy(numbers, 0, newNumbers, 0, size);
+            names = newNames;
+            texts = newTexts;
+            numbers = newNumbers;
+        }
+        names[size] = name;
+        texts[size] = null;
+        numbers[size] = 0;
+        return size++;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getName(int i) {
+        return names[i];
+    }
+
+    /**
+     * @return whether the i'th stat is a number, to be read with getNumber rather than getText
+     */
+    public boolean isNumber(int i) {
+        return texts[i] == null;
+    }
+
+    public long getNumber(int i) {
+        return numbers[i];
+    }
+
+    public String getText(int i) {
+        return texts[i];
+    }
+
+    /**
+     * @return the i'th stat's value as text, whatever its type
+     */
+    public String getValue(int i) {
+        return texts[i] != null ? texts[i] : String.valueOf(numbers[i]);
+    }
+
+    /**
+     * @return the named stat's value as text, or null if there's no such stat
+     */
+    public String get(String name) {
+        int i = indexOf(name);
+        return i == -1 ? null : getValue(i);
+    }
+}
@@ -0,0 +1,83 @@
+package com.thimbleware.jmemcached.jmx;
+
+import com.thimbleware.jmemcached.AbstractCache;
+
+/**
+ * Exposes a cache's counters over JMX, straight from the counters rather than through the stats command's strings.
+ */
+public final class CacheStats implements CacheStatsMBean {
+
+    private final AbstractCache<?> cache;
+
+    public CacheStats(AbstractCache<?> cache) {
+        this.cache = cache;
+    }
+
+    public long getGetCmds() {
+        return cache.getGetCmds();
+    }
+
+    public long getSetCmds() {
+        return cache.getSetCmds();
+    }
+
+    public long getGetHits() {
+        return cache.getGetHits();
+    }
+
+    public long getGetMisses() {
+        return cache.getGetMisses();
+    }
+
+    public long getDeleteHits() {
+        return cache.getDeleteHits();
+    }
+
+    public long getDeleteMisses() {
+        return cache.getDeleteMisses();
+    }
+
+    public long getIncrHits() {
+        return cache.getIncrHits();
+    }
+
+    public long getIncrMisses() {
+        return cache.getIncrMisses();
+    }
+
+    public long getDecrHits() {
+        return cache.getDecrHits();
+    }
+
+    public long getDecrMisses() {
+        return cache.getDecrMisses();
+    }
+
+    public long getCasHits() {
+        return cache.getCasHits();
+    }
+
+    public long getCasMisses() {
+        return cache.getCasMisses();
+    }
+
+    public long getCasBadval() {
+        return cache.getCasBadval();
+    }
+
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    public long getCurrentItems() {
+        return cache.getCurrentItems();
+    }
+
+    public long getCurrentBytes() {
+        return cache.getCurrentBytes();
+    }
+
+    public long getLimitMaxBytes() {
+        return cache.getLimitMaxBytes();
+    }
+}
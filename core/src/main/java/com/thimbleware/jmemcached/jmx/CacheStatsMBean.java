@@ -0,0 +1,41 @@
+package com.thimbleware.jmemcached.jmx;
+
+/**
+ * The cache's command counters and contents.
+ */
+public interface CacheStatsMBean {
+
+    long getGetCmds();
+
+    long getSetCmds();
+
+    long getGetHits();
+
+    long getGetMisses();
+
+    long getDeleteHits();
+
+    long getDeleteMisses();
+
+    long getIncrHits();
+
+    long getIncrMisses();
+
+    long getDecrHits();
+
+    long getDecrMisses();
+
+    long getCasHits();
+
+    long getCasMisses();
+
+    long getCasBadval();
+
+    long getEvictions();
+
+    long getCurrentItems();
+
+    long getCurrentBytes();
+
+    long getLimitMaxBytes();
+}
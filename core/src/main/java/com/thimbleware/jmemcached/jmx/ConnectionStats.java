@@ -0,0 +1,40 @@
+package com.thimbleware.jmemcached.jmx;
+
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.protocol.ConnectionStatsHandler;
+
+/**
+ * Exposes a daemon's connection counters over JMX.
+ */
+public final class ConnectionStats implements ConnectionStatsMBean {
+
+    private final MemCacheDaemon<?> daemon;
+
+    public ConnectionStats(MemCacheDaemon<?> daemon) {
+        this.daemon = daemon;
+    }
+
+    public int getCurrConnections() {
+        ConnectionStatsHandler connections = daemon.getConnectionStats();
+        return connections == null ? 0 : connections.getCurrConnections();
+    }
+
+    public long getTotalConnections() {
+        ConnectionStatsHandler connections = daemon.getConnectionStats();
+        return connections == null ? 0 : connections.getTotalConnections();
+    }
+
+    public long getRejectedConnections() {
+        return daemon.getRejectedConnections();
+    }
+
+    public long getBytesRead() {
+        ConnectionStatsHandler connections = daemon.getConnectionStats();
+        return connections == null ? 0 : connections.getBytesRead();
+    }
+
+    public long getBytesWritten() {
+        ConnectionStatsHandler connections = daemon.getConnectionStats();
+        return connections == null ? 0 : connections.getBytesWritten();
+    }
+}
@@ -0,0 +1,17 @@
+package com.thimbleware.jmemcached.jmx;
+
+/**
+ * The daemon's client connections and traffic.
+ */
+public interface ConnectionStatsMBean {
+
+    int getCurrConnections();
+
+    long getTotalConnections();
+
+    long getRejectedConnections();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+}
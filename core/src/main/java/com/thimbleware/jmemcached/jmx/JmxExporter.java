@@ -0,0 +1,80 @@
+package com.thimbleware.jmemcached.jmx;
+
+import com.thimbleware.jmemcached.AbstractCache;
+import com.thimbleware.jmemcached.Cache;
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.CacheStorage;
+import com.thimbleware.jmemcached.storage.bytebuffer.BlockStorageCacheStorage;
+import com.thimbleware.jmemcached.storage.bytebuffer.Partition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers MBeans for a daemon's cache, its storage (and each partition of a block store) and its connections,
+ * under names of the form "com.thimbleware.jmemcached:instance=11211,type=Cache".
+ * <p/>
+ * The MBeans read the counters directly, so polling them costs no more than the reads themselves; except a
+ * partition's largest free run, which scans its allocation bitmap.
+ */
+public final class JmxExporter {
+
+    public static final String DOMAIN = "com.thimbleware.jmemcached";
+
+    final Logger log = LoggerFactory.getLogger(JmxExporter.class);
+
+    private final MBeanServer server;
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    public JmxExporter(MBeanServer server) {
+        this.server = server;
+    }
+
+    /**
+     * @param daemon the daemon whose statistics to register
+     * @param instance tells the daemon apart from others in the same JVM, e.g. its port
+     */
+    public void register(MemCacheDaemon<?> daemon, String instance) throws JMException {
+        String prefix = DOMAIN + ":instance=" + ObjectName.quote(instance) + ",type=";
+
+        register(new ConnectionStats(daemon), prefix + "Connections");
+
+        Cache<?> cache = daemon.getCache();
+        if (cache instanceof AbstractCache) register(new CacheStats((AbstractCache<?>) cache), prefix + "Cache");
+        if (!(cache instanceof CacheImpl)) return;
+
+        CacheStorage<?, ?> storage = ((CacheImpl) cache).getStorage();
+        register(new StorageStats(storage), prefix + "Storage");
+        if (storage instanceof BlockStorageCacheStorage) {
+            Partition[] partitions = ((BlockStorageCacheStorage) storage).getPartitions();
+            for (int i = 0; i < partitions.length; i++)
+                register(new PartitionStats(partitions[i]), prefix + "Partition,partition=" + i);
+        }
+    }
+
+    private void register(Object mbean, String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        server.registerMBean(mbean, objectName);
+        registered.add(objectName);
+    }
+
+    /**
+     * Unregister everything registered, logging rather than throwing on failure so the rest still go.
+     */
+    public void unregister() {
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                log.warn("unable to unregister " + name, e);
+            }
+        }
+        registered.clear();
+    }
+}
@@ -0,0 +1,57 @@
+package com.thimbleware.jmemcached.jmx;
+
+import com.thimbleware.jmemcached.storage.bytebuffer.Partition;
+
+/**
+ * Exposes a block store partition's fill and fragmentation over JMX.
+ */
+public final class PartitionStats implements PartitionStatsMBean {
+
+    private final Partition partition;
+
+    public PartitionStats(Partition partition) {
+        this.partition = partition;
+    }
+
+    public int getItems() {
+        return partition.getNumberItems();
+    }
+
+    public long getStoreSizeBytes() {
+        return partition.getStoreSizeBytes();
+    }
+
+    public int getBlockSizeBytes() {
+        return partition.getBlockSizeBytes();
+    }
+
+    public long getBlocks() {
+        return partition.getBlockCount();
+    }
+
+    public long getFreeBlocks() {
+        return partition.getFreeBlocks();
+    }
+
+    public long getLargestFreeRun() {
+        return partition.getLargestFreeRun();
+    }
+
+    public double getFill() {
+        long blocks = partition.getBlockCount();
+        return blocks == 0 ? 0 : 1 - (double) partition.getFreeBlocks() / blocks;
+    }
+
+    public double getFragmentation() {
+        long free = partition.getFreeBlocks();
+        return free == 0 ? 0 : 1 - (double) partition.getLargestFreeRun() / free;
+    }
+
+    public long getAllocationFailures() {
+        return partition.getAllocationFailures();
+    }
+
+    public double getAverageChainLength() {
+        return partition.getAverageChainLength();
+    }
+}
@@ -0,0 +1,42 @@
+package com.thimbleware.jmemcached.jmx;
+
+/**
+ * One block store partition's fill and fragmentation.
+ */
+public interface PartitionStatsMBean {
+
+    int getItems();
+
+    long getStoreSizeBytes();
+
+    int getBlockSizeBytes();
+
+    long getBlocks();
+
+    long getFreeBlocks();
+
+    /**
+     * @return the most blocks free in one piece, which bounds the largest value the partition can still take
+     */
+    long getLargestFreeRun();
+
+    /**
+     * @return the fraction of the blocks allocated, from 0 to 1
+     */
+    double getFill();
+
+    /**
+     * @return the fraction of the free blocks outside the largest free run, from 0 (all in one piece) to 1
+     */
+    double getFragmentation();
+
+    /**
+     * @return the number of stores turned down for want of room
+     */
+    long getAllocationFailures();
+
+    /**
+     * @return the average number of keys in a hash bucket holding any
+     */
+    double getAverageChainLength();
+}
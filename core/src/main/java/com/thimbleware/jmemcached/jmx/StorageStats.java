@@ -0,0 +1,39 @@
+package com.thimbleware.jmemcached.jmx;
+
+import com.thimbleware.jmemcached.storage.CacheStorage;
+
+/**
+ * Exposes any cache storage's size and memory use over JMX.
+ */
+public final class StorageStats implements StorageStatsMBean {
+
+    private final CacheStorage<?, ?> storage;
+
+    public StorageStats(CacheStorage<?, ?> storage) {
+        this.storage = storage;
+    }
+
+    public String getType() {
+        return storage.getClass().getName();
+    }
+
+    public int getItems() {
+        return storage.size();
+    }
+
+    public int getMaxItems() {
+        return storage.capacity();
+    }
+
+    public long getMemoryCapacity() {
+        return storage.getMemoryCapacity();
+    }
+
+    public long getMemoryUsed() {
+        return storage.getMemoryUsed();
+    }
+
+    public long getEvictions() {
+        return storage.getEvictions();
+    }
+}
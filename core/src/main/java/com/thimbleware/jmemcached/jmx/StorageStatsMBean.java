@@ -0,0 +1,22 @@
+package com.thimbleware.jmemcached.jmx;
+
+/**
+ * The cache storage's size and memory use.
+ */
+public interface StorageStatsMBean {
+
+    /**
+     * @return the storage implementation's class name
+     */
+    String getType();
+
+    int getItems();
+
+    int getMaxItems();
+
+    long getMemoryCapacity();
+
+    long getMemoryUsed();
+
+    long getEvictions();
+}
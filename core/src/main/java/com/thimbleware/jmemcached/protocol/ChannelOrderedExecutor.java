@@ -0,0 +1,52 @@
+package com.thimbleware.jmemcached.protocol;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the tasks of a single channel on a shared executor, one at a time and in submission order, so that
+ * responses to pipelined commands can't overtake one another.
+ */
+final class ChannelOrderedExecutor implements Executor {
+
+    private final Executor executor;
+
+    // guarded by this
+    private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+    private Runnable active;
+
+    ChannelOrderedExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public synchronized void execute(final Runnable task) {
+        tasks.offer(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        active = tasks.poll();
+        if (active != null) {
+            executor.execute(active);
+        }
+    }
+
+    /**
+     * @return true if no task is queued or running, in which case it is safe to process the channel's next command
+     * inline again
+     */
+    synchronized boolean isIdle() {
+        return active == null;
+    }
+}
@@ -0,0 +1,50 @@
+package com.thimbleware.jmemcached.protocol;
+
+import com.thimbleware.jmemcached.Stats;
+import com.thimbleware.jmemcached.util.LatencyHistogram;
+
+/**
+ * How long each command takes to run, from the command handler starting on it to its response being handed to
+ * the encoder, for the "stats latency" command.
+ * <p/>
+ * One instance is shared by every command handler of the daemon, so text and binary connections are counted
+ * together.
+ */
+public final class CommandLatency {
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Op.values().length];
+
+    public CommandLatency() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * @param op the command, or null for the binary protocol's no-op
+     * @param nanos how long it took
+     */
+    public void record(Op op, long nanos) {
+        if (op != null) histograms[op.ordinal()].record(nanos);
+    }
+
+    /**
+     * @return the histogram of the command's run times, in nanoseconds
+     */
+    public LatencyHistogram get(Op op) {
+        return histograms[op.ordinal()];
+    }
+
+    /**
+     * Add a line per command which has been run, of its count and percentiles.
+     */
+    public void stat(Stats stats) {
+        for (Op op : Op.values()) {
+            LatencyHistogram histogram = histograms[op.ordinal()];
+            if (histogram.getCount() > 0)
+                stats.add(op.name().toLowerCase(), histogram.summary());
+        }
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) histogram.reset();
+    }
+}
@@ -38,8 +38,12 @@ public final class CommandMessage<CACHE_ELEMENT extends CacheElement> implements
     public int opaque;
     public boolean addKeyToResponse = false;
 
-    public int incrExpiry;
-    public int incrAmount;
+    // incr/decr expiry for creating the counter on a miss; -1 (the default, and 0xffffffff on the wire) to not create it
+    public int incrExpiry = -1;
+    public long incrAmount;
+    public long incrInitial;
+
+    public MetaFlags meta;
 
     private CommandMessage(Op op) {
         this.op = op;
@@ -0,0 +1,74 @@
+package com.thimbleware.jmemcached.protocol;
+
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of open client connections. A connection over the limit is closed as soon as it is accepted,
+ * and none of its events go further up the pipeline, so it costs the protocol handlers nothing.
+ * <p/>
+ * One instance is shared by every pipeline. It must come before the connection stats handler, so a rejected
+ * connection is never counted as a current one.
+ */
+@ChannelHandler.Sharable
+public final class ConnectionLimitHandler extends SimpleChannelUpstreamHandler {
+
+    final Logger logger = LoggerFactory.getLogger(ConnectionLimitHandler.class);
+
+    private static final Object REJECTED = new Object();
+
+    /**
+     * Warn about every this many rejections rather than each one, so a connection flood doesn't flood the log too.
+     */
+    private static final int WARN_EVERY = 1000;
+
+    private final int maxConnections;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+
+    /**
+     * @param maxConnections the most connections open at once
+     */
+    public ConnectionLimitHandler(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @Override
+    public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+        if (ctx.getAttachment() == REJECTED) return;
+        super.handleUpstream(ctx, e);
+    }
+
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            long rejected = rejectedConnections.incrementAndGet();
+            ctx.setAttachment(REJECTED);
+            if (rejected % WARN_EVERY == 1)
+                logger.warn("rejecting connections: " + maxConnections + " connections already open, " + rejected + " rejected so far");
+            else if (logger.isDebugEnabled())
+                logger.debug("rejecting connection from " + ctx.getChannel().getRemoteAddress());
+            ctx.getChannel().close();
+            return;
+        }
+        super.channelOpen(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        connections.decrementAndGet();
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * @return the number of connections turned away since the daemon started
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+}
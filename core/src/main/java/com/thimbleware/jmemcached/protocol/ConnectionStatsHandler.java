@@ -0,0 +1,76 @@
+package com.thimbleware.jmemcached.protocol;
+
+import com.thimbleware.jmemcached.util.StripedCounter;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts connections, and the bytes read from and written to them, for the stats command.
+ * <p/>
+ * Sitting at the head of the pipeline it sees the bytes as they come off and go onto the wire, whichever protocol
+ * the connection speaks. One instance is shared by every pipeline; it goes after the connection limit, so that
+ * connections turned away there aren't counted.
+ */
+@ChannelHandler.Sharable
+public final class ConnectionStatsHandler extends SimpleChannelHandler {
+
+    private final AtomicInteger currConnections = new AtomicInteger();
+    private final StripedCounter totalConnections = new StripedCounter();
+    private final StripedCounter bytesRead = new StripedCounter();
+    private final StripedCounter bytesWritten = new StripedCounter();
+
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        currConnections.incrementAndGet();
+        totalConnections.increment();
+        super.channelOpen(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        currConnections.decrementAndGet();
+        super.channelClosed(ctx, e);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (e.getMessage() instanceof ChannelBuffer) bytesRead.add(((ChannelBuffer) e.getMessage()).readableBytes());
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void writeComplete(ChannelHandlerContext ctx, WriteCompletionEvent e) throws Exception {
+        bytesWritten.add(e.getWrittenAmount());
+        super.writeComplete(ctx, e);
+    }
+
+    /**
+     * @return the number of connections open now
+     */
+    public int getCurrConnections() {
+        return currConnections.get();
+    }
+
+    /**
+     * @return the number of connections accepted since the daemon started
+     */
+    public long getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    /**
+     * @return the number of bytes read from clients
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return the number of bytes written to clients
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+}
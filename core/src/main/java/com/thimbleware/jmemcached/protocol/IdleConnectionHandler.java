@@ -0,0 +1,86 @@
+package com.thimbleware.jmemcached.protocol;
+
+import org.jboss.netty.channel.*;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes connections which have neither read nor written anything for the idle time.
+ * <p/>
+ * Unlike Netty's IdleStateHandler this keeps its per connection state in the context attachment, so one instance
+ * serves every pipeline; all of them share the one timer.
+ */
+@ChannelHandler.Sharable
+public final class IdleConnectionHandler extends SimpleChannelHandler {
+
+    final Logger logger = LoggerFactory.getLogger(IdleConnectionHandler.class);
+
+    private final Timer timer;
+    private final long idleTimeMillis;
+
+    /**
+     * The last time a connection saw traffic, and the task that checks on it.
+     */
+    private final class Activity implements TimerTask {
+        final Channel channel;
+        volatile long lastActivity = System.currentTimeMillis();
+        volatile Timeout timeout;
+
+        Activity(Channel channel) {
+            this.channel = channel;
+        }
+
+        public void run(Timeout timeout) throws Exception {
+            if (timeout.isCancelled() || !channel.isOpen()) return;
+
+            long idle = System.currentTimeMillis() - lastActivity;
+            if (idle >= idleTimeMillis) {
+                if (logger.isDebugEnabled()) logger.debug("closing idle connection " + channel.getRemoteAddress());
+                Channels.close(channel);
+            } else {
+                this.timeout = timer.newTimeout(this, idleTimeMillis - idle, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * @param timer the timer which checks on connections
+     * @param idleTime how long, in seconds, a connection may go without traffic
+     */
+    public IdleConnectionHandler(Timer timer, int idleTime) {
+        this.timer = timer;
+        this.idleTimeMillis = TimeUnit.SECONDS.toMillis(idleTime);
+    }
+
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        Activity activity = new Activity(ctx.getChannel());
+        ctx.setAttachment(activity);
+        activity.timeout = timer.newTimeout(activity, idleTimeMillis, TimeUnit.MILLISECONDS);
+        super.channelOpen(ctx, e);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        ((Activity) ctx.getAttachment()).lastActivity = System.currentTimeMillis();
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void writeComplete(ChannelHandlerContext ctx, WriteCompletionEvent e) throws Exception {
+        ((Activity) ctx.getAttachment()).lastActivity = System.currentTimeMillis();
+        super.writeComplete(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        Activity activity = (Activity) ctx.getAttachment();
+        if (activity != null && activity.timeout != null) activity.timeout.cancel();
+        super.channelClosed(ctx, e);
+    }
+}
@@ -19,13 +19,18 @@ package com.thimbleware.jmemcached.protocol;
 import com.thimbleware.jmemcached.Cache;
 import com.thimbleware.jmemcached.CacheElement;
 import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.Stats;
+import com.thimbleware.jmemcached.protocol.exceptions.MalformedCommandException;
 import com.thimbleware.jmemcached.protocol.exceptions.UnknownCommandException;
 import org.jboss.netty.channel.*;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Executor;
+
+import static com.thimbleware.jmemcached.protocol.text.MemcachedPipelineFactory.USASCII;
 
 // TODO implement flush_all delay
 
@@ -43,9 +48,6 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
 
     final Logger logger = LoggerFactory.getLogger(MemcachedCommandHandler.class);
 
-    public final AtomicInteger curr_conns = new AtomicInteger();
-    public final AtomicInteger total_conns = new AtomicInteger();
-
     /**
      * The following state variables are universal for the entire daemon. These are used for statistics gathering.
      * In order for these values to work properly, the handler _must_ be declared with a ChannelPipelineCoverage
@@ -68,6 +70,21 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
      */
     private final DefaultChannelGroup channelGroup;
 
+    /**
+     * Where slow commands run, off the I/O thread; null to run everything inline.
+     */
+    private final Executor slowCommandExecutor;
+
+    /**
+     * Per channel ordering of the commands handed to the slow command executor.
+     */
+    private final ChannelLocal<ChannelOrderedExecutor> offloaded = new ChannelLocal<ChannelOrderedExecutor>();
+
+    /**
+     * Run times of the commands, shared with the daemon's other command handlers.
+     */
+    private final CommandLatency latency;
+
     /**
      * Construct the server session handler
      *
@@ -78,17 +95,50 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
      * @param channelGroup
      */
     public MemcachedCommandHandler(Cache cache, String memcachedVersion, boolean verbosity, int idle, DefaultChannelGroup channelGroup) {
+        this(cache, memcachedVersion, verbosity, idle, channelGroup, null);
+    }
+
+    /**
+     * Construct the server session handler, running slow commands (stats, flush_all, append and prepend) on a
+     * separate executor so they don't hold up the other connections sharing the I/O thread.
+     *
+     * @param cache               the cache to use
+     * @param memcachedVersion    the version string to return to clients
+     * @param verbosity           verbosity level for debugging
+     * @param idle                how long sessions can be idle for
+     * @param channelGroup
+     * @param slowCommandExecutor the executor for slow commands, or null to run them inline
+     */
+    public MemcachedCommandHandler(Cache cache, String memcachedVersion, boolean verbosity, int idle, DefaultChannelGroup channelGroup, Executor slowCommandExecutor) {
+        this(cache, memcachedVersion, verbosity, idle, channelGroup, slowCommandExecutor, new CommandLatency());
+    }
+
+    /**
+     * Construct the server session handler, recording how long commands take into latency histograms shared with
+     * other handlers, e.g. those of the other protocol.
+     *
+     * @param cache               the cache to use
+     * @param memcachedVersion    the version string to return to clients
+     * @param verbosity           verbosity level for debugging
+     * @param idle                how long sessions can be idle for
+     * @param channelGroup
+     * @param slowCommandExecutor the executor for slow commands, or null to run them inline
+     * @param latency             where to record command run times
+     */
+    public MemcachedCommandHandler(Cache cache, String memcachedVersion, boolean verbosity, int idle, DefaultChannelGroup channelGroup, Executor slowCommandExecutor, CommandLatency latency) {
         this.cache = cache;
 
         version = memcachedVersion;
         verbose = verbosity;
         idle_limit = idle;
         this.channelGroup = channelGroup;
+        this.slowCommandExecutor = slowCommandExecutor;
+        this.latency = latency;
     }
 
 
     /**
-     * On open we manage some statistics, and add this connection to the channel group.
+     * On open we add this connection to the channel group.
      *
      * @param channelHandlerContext
      * @param channelStateEvent
@@ -96,13 +146,11 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
      */
     @Override
     public void channelOpen(ChannelHandlerContext channelHandlerContext, ChannelStateEvent channelStateEvent) throws Exception {
-        total_conns.incrementAndGet();
-        curr_conns.incrementAndGet();
         channelGroup.add(channelHandlerContext.getChannel());
     }
 
     /**
-     * On close we manage some statistics, and remove this connection from the channel group.
+     * On close we remove this connection from the channel group.
      *
      * @param channelHandlerContext
      * @param channelStateEvent
@@ -110,8 +158,8 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
      */
     @Override
     public void channelClosed(ChannelHandlerContext channelHandlerContext, ChannelStateEvent channelStateEvent) throws Exception {
-        curr_conns.decrementAndGet();
         channelGroup.remove(channelHandlerContext.getChannel());
+        offloaded.remove(channelHandlerContext.getChannel());
     }
 
 
@@ -126,14 +174,63 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
 
     @Override
     @SuppressWarnings("unchecked")
-    public void messageReceived(ChannelHandlerContext channelHandlerContext, MessageEvent messageEvent) throws Exception {
+    public void messageReceived(final ChannelHandlerContext channelHandlerContext, MessageEvent messageEvent) throws Exception {
         if (!(messageEvent.getMessage() instanceof CommandMessage)) {
             // Ignore what this encoder can't encode.
             channelHandlerContext.sendUpstream(messageEvent);
             return;
         }
 
-        CommandMessage<CACHE_ELEMENT> command = (CommandMessage<CACHE_ELEMENT>) messageEvent.getMessage();
+        final CommandMessage<CACHE_ELEMENT> command = (CommandMessage<CACHE_ELEMENT>) messageEvent.getMessage();
+        final Channel channel = messageEvent.getChannel();
+
+        if (slowCommandExecutor != null) {
+            // once a command has been offloaded, everything behind it on the same channel has to follow it through
+            // the executor, or its response could overtake the slow one
+            ChannelOrderedExecutor executor = offloaded.get(channel);
+            if (isSlow(command.op) || (executor != null && !executor.isIdle())) {
+                if (executor == null) {
+                    executor = new ChannelOrderedExecutor(slowCommandExecutor);
+                    offloaded.set(channel, executor);
+                }
+                detach(command);
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            processCommand(channelHandlerContext, command, channel);
+                        } catch (Throwable t) {
+                            Channels.fireExceptionCaught(channelHandlerContext, t);
+                        }
+                    }
+                });
+                return;
+            }
+        }
+
+        processCommand(channelHandlerContext, command, channel);
+    }
+
+    /**
+     * Copy out the parts of a command which may still point into the decoder's input buffer, which is discarded or
+     * reused once the I/O thread moves on, so the command can be run after the decoder has moved on. A storage
+     * command's element needn't be copied: both decoders give it its own key and data buffers.
+     */
+    private void detach(CommandMessage<CACHE_ELEMENT> command) {
+        if (command.keys != null) {
+            for (Key key : command.keys) key.bytes = key.bytes.copy();
+        }
+        if (command.meta != null && command.meta.opaque != null) command.meta.opaque = command.meta.opaque.copy();
+    }
+
+    /**
+     * Commands whose cost isn't bounded by the size of the request: stats and flush_all walk the whole cache, and
+     * append and prepend copy the existing value, however large that is.
+     */
+    private static boolean isSlow(Op cmd) {
+        return cmd == Op.STATS || cmd == Op.FLUSH_ALL || cmd == Op.APPEND || cmd == Op.PREPEND;
+    }
+
+    private void processCommand(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) throws Exception {
         Op cmd = command.op;
         int cmdKeysSize = command.keys == null ? 0 : command.keys.size();
 
@@ -153,7 +250,16 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
             logger.info(log.toString());
         }
 
-        Channel channel = messageEvent.getChannel();
+        long start = System.nanoTime();
+        try {
+            dispatch(channelHandlerContext, command, cmdKeysSize, channel);
+        } finally {
+            latency.record(cmd, System.nanoTime() - start);
+        }
+    }
+
+    private void dispatch(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, int cmdKeysSize, Channel channel) throws Exception {
+        Op cmd = command.op;
         if (cmd == null) handleNoOp(channelHandlerContext, command);
         else
         switch (cmd) {
@@ -203,6 +309,21 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
             case VERBOSITY:
                 handleVerbosity(channelHandlerContext, command, channel);
                 break;
+            case MG:
+                handleMetaGet(channelHandlerContext, command, channel);
+                break;
+            case MS:
+                handleMetaSet(channelHandlerContext, command, channel);
+                break;
+            case MD:
+                handleMetaDelete(channelHandlerContext, command, channel);
+                break;
+            case MA:
+                handleMetaArithmetic(channelHandlerContext, command, channel);
+                break;
+            case MN:
+                handleNoOp(channelHandlerContext, command);
+                break;
             default:
                  throw new UnknownCommandException("unknown command");
         }
@@ -232,11 +353,36 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
     }
 
     protected void handleStats(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, int cmdKeysSize, Channel channel) {
-        String option = "";
-        if (cmdKeysSize > 0) {
-            option = command.keys.get(0).bytes.toString();
+        StringBuilder args = new StringBuilder();
+        for (int i = 0; i < cmdKeysSize; i++) {
+            if (i > 0) args.append(' ');
+            args.append(command.keys.get(i).bytes.toString(USASCII));
+        }
+        String option = args.toString();
+        Stats stats = cache.stat(option);
+        if (option.length() == 0) connectionStats(channelHandlerContext.getPipeline(), stats);
+        else if (option.startsWith("latency")) {
+            // the cache reports (and resets) its storage latency alongside
+            latency.stat(stats);
+            if (option.equals("latency reset")) latency.reset();
         }
-        Channels.fireMessageReceived(channelHandlerContext, new ResponseMessage(command).withStatResponse(cache.stat(option)), channel.getRemoteAddress());
+        Channels.fireMessageReceived(channelHandlerContext, new ResponseMessage(command).withStatResponse(stats), channel.getRemoteAddress());
+    }
+
+    /**
+     * Fill in the stats only the network layer knows, from the connection handlers at the head of the pipeline.
+     */
+    private static void connectionStats(ChannelPipeline pipeline, Stats stats) {
+        ConnectionStatsHandler connections = pipeline.get(ConnectionStatsHandler.class);
+        if (connections != null) {
+            stats.set("curr_connections", connections.getCurrConnections());
+            stats.set("total_connections", connections.getTotalConnections());
+            stats.set("connection_structures", connections.getCurrConnections());
+            stats.set("bytes_read", connections.getBytesRead());
+            stats.set("bytes_written", connections.getBytesWritten());
+        }
+        ConnectionLimitHandler limit = pipeline.get(ConnectionLimitHandler.class);
+        stats.set("rejected_connections", limit == null ? 0 : limit.getRejectedConnections());
     }
 
     protected void handleDelete(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) {
@@ -245,15 +391,19 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
     }
 
     protected void handleDecr(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) {
-        Integer incrDecrResp = cache.get_add(command.keys.get(0), -1 * command.incrAmount);
+        Long incrDecrResp = cache.get_add(command.keys.get(0), -1 * command.incrAmount, -1, incrVivifyExpire(command), command.incrInitial);
         Channels.fireMessageReceived(channelHandlerContext, new ResponseMessage(command).withIncrDecrResponse(incrDecrResp), channel.getRemoteAddress());
     }
 
     protected void handleIncr(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) {
-        Integer incrDecrResp = cache.get_add(command.keys.get(0), command.incrAmount); // TODO support default value and expiry!!
+        Long incrDecrResp = cache.get_add(command.keys.get(0), command.incrAmount, -1, incrVivifyExpire(command), command.incrInitial);
         Channels.fireMessageReceived(channelHandlerContext, new ResponseMessage(command).withIncrDecrResponse(incrDecrResp), channel.getRemoteAddress());
     }
 
+    private static long incrVivifyExpire(CommandMessage command) {
+        return command.incrExpiry == -1 ? -1 : LocalCacheElement.expiry(command.incrExpiry);
+    }
+
     protected void handlePrepend(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) {
         Cache.StoreResponse ret;
         ret = cache.prepend(command.element);
@@ -290,6 +440,77 @@ public final class MemcachedCommandHandler<CACHE_ELEMENT extends CacheElement> e
         Channels.fireMessageReceived(channelHandlerContext, new ResponseMessage(command).withResponse(ret), channel.getRemoteAddress());
     }
 
+    @SuppressWarnings("unchecked")
+    protected void handleMetaGet(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) {
+        MetaFlags meta = command.meta;
+        Cache.MetaGetResponse<CACHE_ELEMENT> result = cache.meta_get(command.keys.get(0),
+                meta.ttl == -1 ? -1 : LocalCacheElement.expiry(meta.ttl),
+                meta.vivifyTtl == -1 ? -1 : LocalCacheElement.expiry(meta.vivifyTtl),
+                meta.recacheTtl);
+        CACHE_ELEMENT[] results = (CACHE_ELEMENT[]) new CacheElement[] { result.element };
+        ResponseMessage<CACHE_ELEMENT> resp = new ResponseMessage<CACHE_ELEMENT>(command).withElements(results).withRecacheToken(result.token);
+        Channels.fireMessageReceived(channelHandlerContext, resp, channel.getRemoteAddress());
+    }
+
+    protected void handleMetaSet(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) throws MalformedCommandException {
+        MetaFlags meta = command.meta;
+        Cache.StoreResponse ret;
+        if (meta.compareCas != -1) {
+            ret = cache.cas(meta.compareCas, command.element, meta.invalidate);
+        } else {
+            switch (meta.mode) {
+                case 'E':
+                    ret = cache.add(command.element);
+                    break;
+                case 'A':
+                    ret = cache.append(command.element);
+                    break;
+                case 'P':
+                    ret = cache.prepend(command.element);
+                    break;
+                case 'R':
+                    ret = cache.replace(command.element);
+                    break;
+                case 'S':
+                    ret = cache.set(command.element);
+                    break;
+                default:
+                    throw new MalformedCommandException("invalid meta set mode");
+            }
+        }
+        Channels.fireMessageReceived(channelHandlerContext, new ResponseMessage(command).withResponse(ret), channel.getRemoteAddress());
+    }
+
+    protected void handleMetaDelete(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) {
+        MetaFlags meta = command.meta;
+        Cache.DeleteResponse dr = cache.meta_delete(command.keys.get(0), meta.compareCas, meta.invalidate,
+                meta.ttl == -1 ? -1 : LocalCacheElement.expiry(meta.ttl));
+        Channels.fireMessageReceived(channelHandlerContext, new ResponseMessage(command).withDeleteResponse(dr), channel.getRemoteAddress());
+    }
+
+    protected void handleMetaArithmetic(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) throws MalformedCommandException {
+        MetaFlags meta = command.meta;
+        long mod;
+        switch (meta.mode) {
+            case 'I':
+            case '+':
+                mod = meta.delta;
+                break;
+            case 'D':
+            case '-':
+                mod = -1 * meta.delta;
+                break;
+            default:
+                throw new MalformedCommandException("invalid meta arithmetic mode");
+        }
+
+        Cache.MetaArithmeticResponse result = cache.meta_arithmetic(command.keys.get(0), mod,
+                meta.ttl == -1 ? -1 : LocalCacheElement.expiry(meta.ttl),
+                meta.vivifyTtl == -1 ? -1 : LocalCacheElement.expiry(meta.vivifyTtl),
+                meta.initial, meta.compareCas);
+        Channels.fireMessageReceived(channelHandlerContext, new ResponseMessage(command).withResponse(result.response).withIncrDecrResponse(result.value), channel.getRemoteAddress());
+    }
+
     protected void handleGets(ChannelHandlerContext channelHandlerContext, CommandMessage<CACHE_ELEMENT> command, Channel channel) {
         Key[] keys = new Key[command.keys.size()];
         keys = command.keys.toArray(keys);
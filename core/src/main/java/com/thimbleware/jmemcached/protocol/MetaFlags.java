@@ -0,0 +1,59 @@
+package com.thimbleware.jmemcached.protocol;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.Serializable;
+
+/**
+ * The flags parsed from a meta command (mg/ms/md/ma) line.
+ * <p/>
+ * Flags which ask for a value in the response are kept in request order in <code>returned</code>, so the response
+ * can echo them back in the same order. Numeric tokens are -1 when the flag was not given.
+ */
+public final class MetaFlags implements Serializable {
+
+    private static final long serialVersionUID = -4669532673082200704L;
+
+    // requested return flags, in request order
+    public String returned = "";
+
+    // 'v': return the item value
+    public boolean value;
+
+    // 'q': suppress the uninteresting responses (EN for mg, HD for ms/md/ma, NF for md)
+    public boolean quiet;
+
+    // 'I': invalidate; mark the item stale rather than removing it
+    public boolean invalidate;
+
+    // 'O': opaque token echoed back to the client
+    public ChannelBuffer opaque;
+
+    // 'C': compare against this cas value
+    public long compareCas = -1;
+
+    // 'T': update the item's ttl
+    public int ttl = -1;
+
+    // 'N': vivify on miss with this ttl
+    public int vivifyTtl = -1;
+
+    // 'R': hand out the recache token if the remaining ttl is below this
+    public int recacheTtl = -1;
+
+    // 'F': client flags for ms
+    public int clientFlags;
+
+    // 'M': mode switch for ms (E, A, P, R, S) and ma (I, +, D, -)
+    public byte mode;
+
+    // 'D': delta for ma
+    public long delta = 1;
+
+    // 'J': initial value for ma when vivifying
+    public long initial;
+
+    public MetaFlags(byte mode) {
+        this.mode = mode;
+    }
+}
@@ -27,7 +27,10 @@ import java.util.Map;
 public enum Op {
     GET, GETS, APPEND, PREPEND, DELETE, DECR,
     INCR, REPLACE, ADD, SET, CAS, STATS, VERSION,
-    QUIT, FLUSH_ALL, VERBOSITY;
+    QUIT, FLUSH_ALL, VERBOSITY,
+
+    // meta commands
+    MG, MS, MD, MA, MN;
 
     private static Map<ChannelBuffer, Op> opsbf = new HashMap<ChannelBuffer, Op>();
 
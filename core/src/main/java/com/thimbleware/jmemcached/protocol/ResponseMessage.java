@@ -2,10 +2,9 @@ package com.thimbleware.jmemcached.protocol;
 
 import com.thimbleware.jmemcached.Cache;
 import com.thimbleware.jmemcached.CacheElement;
+import com.thimbleware.jmemcached.Stats;
 
 import java.io.Serializable;
-import java.util.Set;
-import java.util.Map;
 
 /**
  * Represents the response to a command.
@@ -19,11 +18,12 @@ public final class ResponseMessage<CACHE_ELEMENT extends CacheElement> implement
     public CommandMessage<CACHE_ELEMENT> cmd;
     public CACHE_ELEMENT[] elements;
     public Cache.StoreResponse response;
-    public Map<String, Set<String>> stats;
+    public Stats stats;
     public String version;
     public Cache.DeleteResponse deleteResponse;
-    public Integer incrDecrResponse;
+    public Long incrDecrResponse;
     public boolean flushSuccess;
+    public Cache.RecacheToken recacheToken;
 
     public ResponseMessage<CACHE_ELEMENT> withElements(CACHE_ELEMENT[] elements) {
         this.elements = elements;
@@ -40,13 +40,13 @@ public final class ResponseMessage<CACHE_ELEMENT extends CacheElement> implement
         return this;
     }
 
-    public ResponseMessage<CACHE_ELEMENT> withIncrDecrResponse(Integer incrDecrResp) {
+    public ResponseMessage<CACHE_ELEMENT> withIncrDecrResponse(Long incrDecrResp) {
         this.incrDecrResponse = incrDecrResp;
 
         return this;
     }
 
-    public ResponseMessage<CACHE_ELEMENT> withStatResponse(Map<String, Set<String>> stats) {
+    public ResponseMessage<CACHE_ELEMENT> withStatResponse(Stats stats) {
         this.stats = stats;
 
         return this;
@@ -57,4 +57,10 @@ public final class ResponseMessage<CACHE_ELEMENT extends CacheElement> implement
 
         return this;
     }
+
+    public ResponseMessage<CACHE_ELEMENT> withRecacheToken(Cache.RecacheToken recacheToken) {
+        this.recacheToken = recacheToken;
+
+        return this;
+    }
 }
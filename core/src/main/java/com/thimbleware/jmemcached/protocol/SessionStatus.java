@@ -14,12 +14,13 @@ public final class SessionStatus implements Serializable {
         WAITING_FOR_DATA,
         READY,
         PROCESSING_MULTILINE,
+        SWALLOWING_DATA,
     }
 
     // the state the session is in
     public State state;
 
-    // if we are waiting for more data, how much?
+    // if we are waiting for (or dropping) more data, how much?
     public int bytesNeeded;
 
     // the current working command
@@ -44,6 +45,17 @@ public final class SessionStatus implements Serializable {
         return this;
     }
 
+    /**
+     * Drop the next size bytes of input, the payload of a command which has been refused.
+     */
+    public SessionStatus swallow(int size) {
+        this.cmd = null;
+        this.bytesNeeded = size;
+        this.state = State.SWALLOWING_DATA;
+
+        return this;
+    }
+
     public SessionStatus needMore(int size, CommandMessage cmd) {
         this.cmd = cmd;
         this.bytesNeeded = size;
@@ -0,0 +1,64 @@
+package com.thimbleware.jmemcached.protocol;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+
+import java.util.Map;
+
+/**
+ * Serves the text and binary protocols on the one port. Each connection starts with only a detector behind the
+ * connection level handlers; the first byte the client sends decides the protocol (binary requests always start
+ * with the 0x80 magic byte, which can't start a text command), and the detector swaps itself for that protocol's
+ * handlers.
+ */
+public final class UnifiedPipelineFactory implements ChannelPipelineFactory {
+
+    private static final byte BINARY_REQUEST_MAGIC = (byte) 0x80;
+
+    private final ChannelHandler[] connectionHandlers;
+    private final ChannelPipelineFactory textPipelineFactory;
+    private final ChannelPipelineFactory binaryPipelineFactory;
+
+    /**
+     * @param connectionHandlers    sharable handlers placed at the head of every pipeline
+     * @param textPipelineFactory   supplies the text protocol handlers
+     * @param binaryPipelineFactory supplies the binary protocol handlers
+     */
+    public UnifiedPipelineFactory(ChannelHandler[] connectionHandlers, ChannelPipelineFactory textPipelineFactory, ChannelPipelineFactory binaryPipelineFactory) {
+        this.connectionHandlers = connectionHandlers;
+        this.textPipelineFactory = textPipelineFactory;
+        this.binaryPipelineFactory = binaryPipelineFactory;
+    }
+
+    public ChannelPipeline getPipeline() throws Exception {
+        ChannelPipeline pipeline = Channels.pipeline(connectionHandlers);
+        pipeline.addLast("detector", new ProtocolDetector());
+        return pipeline;
+    }
+
+    private final class ProtocolDetector extends FrameDecoder {
+
+        @Override
+        protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+            if (!buffer.readable()) return null;
+
+            boolean binary = buffer.getByte(buffer.readerIndex()) == BINARY_REQUEST_MAGIC;
+            ChannelPipelineFactory protocol = binary ? binaryPipelineFactory : textPipelineFactory;
+
+            // the protocol factory's pipeline repeats the connection handlers, which are already in place
+            ChannelPipeline pipeline = ctx.getPipeline();
+            for (Map.Entry<String, ChannelHandler> entry : protocol.getPipeline().toMap().entrySet()) {
+                if (pipeline.getContext(entry.getValue()) == null)
+                    pipeline.addLast(entry.getKey(), entry.getValue());
+            }
+
+            // the handlers just added missed the open event, which the command handler keeps its books by
+            Channels.fireChannelOpen(ctx);
+            pipeline.remove(this);
+
+            // hand everything read so far on to the protocol decoder
+            return buffer.readBytes(buffer.readableBytes());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.thimbleware.jmemcached.protocol;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a slow reader from making the daemon buffer responses without bound.
+ * <p/>
+ * When a channel's queued output passes its write buffer high water mark, Netty marks it unwritable; this handler
+ * then stops reading from it, so no new commands (and so no new responses) arrive until the queue drains below the
+ * low water mark. A client which still manages to queue more than the hard limit, e.g. with one huge multiget, is
+ * disconnected.
+ * <p/>
+ * One instance is shared by every pipeline. It goes between the connection handlers and the codec: downstream of
+ * the response encoder, so every outbound buffer passes through it on the way to the sink.
+ */
+@ChannelHandler.Sharable
+public final class WriteBackpressureHandler extends SimpleChannelHandler {
+
+    final Logger logger = LoggerFactory.getLogger(WriteBackpressureHandler.class);
+
+    private final long maxPendingWriteBytes;
+
+    /**
+     * Per channel state, kept as the context attachment.
+     */
+    private static final class Backlog {
+        final AtomicLong pendingBytes = new AtomicLong();
+        volatile boolean suspended;
+    }
+
+    /**
+     * @param maxPendingWriteBytes the amount of queued output past which a connection is dropped; 0 for no limit
+     */
+    public WriteBackpressureHandler(long maxPendingWriteBytes) {
+        this.maxPendingWriteBytes = maxPendingWriteBytes;
+    }
+
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        ctx.setAttachment(new Backlog());
+        super.channelOpen(ctx, e);
+    }
+
+    @Override
+    public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        Backlog backlog = (Backlog) ctx.getAttachment();
+        Channel channel = ctx.getChannel();
+        if (!channel.isWritable()) {
+            if (!backlog.suspended) {
+                backlog.suspended = true;
+                channel.setReadable(false);
+            }
+        } else if (backlog.suspended) {
+            backlog.suspended = false;
+            channel.setReadable(true);
+        }
+        super.channelInterestChanged(ctx, e);
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (maxPendingWriteBytes == 0 || !(e.getMessage() instanceof ChannelBuffer)) {
+            super.writeRequested(ctx, e);
+            return;
+        }
+
+        final Backlog backlog = (Backlog) ctx.getAttachment();
+        final int size = ((ChannelBuffer) e.getMessage()).readableBytes();
+        if (backlog.pendingBytes.addAndGet(size) > maxPendingWriteBytes) {
+            backlog.pendingBytes.addAndGet(-size);
+            logger.warn("closing " + ctx.getChannel().getRemoteAddress() + ": more than " + maxPendingWriteBytes + " bytes of responses queued");
+            e.getFuture().setFailure(new IOException("too many pending writes"));
+            Channels.close(ctx.getChannel());
+            return;
+        }
+
+        e.getFuture().addListener(new ChannelFutureListener() {
+            public void operationComplete(ChannelFuture future) throws Exception {
+                backlog.pendingBytes.addAndGet(-size);
+            }
+        });
+        super.writeRequested(ctx, e);
+    }
+}
@@ -2,25 +2,22 @@ package com.thimbleware.jmemcached.protocol.binary;
 
 import com.thimbleware.jmemcached.Key;
 import com.thimbleware.jmemcached.LocalCacheElement;
-import com.thimbleware.jmemcached.CacheElement;
 import com.thimbleware.jmemcached.protocol.Op;
 import com.thimbleware.jmemcached.protocol.CommandMessage;
 import com.thimbleware.jmemcached.protocol.exceptions.MalformedCommandException;
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.nio.ByteOrder;
 
 /**
+ * Decodes binary protocol requests. A frame decoder keeps the partial frame it has read so far, so each connection
+ * needs its own.
  */
-@ChannelHandler.Sharable
 public class MemcachedBinaryCommandDecoder extends FrameDecoder {
 
     public static final Charset USASCII = Charset.forName("US-ASCII");
@@ -90,9 +87,10 @@ public class MemcachedBinaryCommandDecoder extends FrameDecoder {
         if (channelBuffer.readableBytes() < 24) return null;
 
         // get the header
+        // header and extras are parsed before decode returns, so they can be read in place; only the key and
+        // value, which outlive this call, are copied out of the cumulation buffer
         channelBuffer.markReaderIndex();
-        ChannelBuffer headerBuffer = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN, 24);
-        channelBuffer.readBytes(headerBuffer);
+        ChannelBuffer headerBuffer = channelBuffer.readSlice(24);
 
         short magic = headerBuffer.readUnsignedByte();
 
@@ -129,16 +127,14 @@ public class MemcachedBinaryCommandDecoder extends FrameDecoder {
         cmdMessage.addKeyToResponse = bcmd.addKeyToResponse;
 
         // get extras. could be empty.
-        ChannelBuffer extrasBuffer = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN, extraLength);
-        channelBuffer.readBytes(extrasBuffer);
+        ChannelBuffer extrasBuffer = channelBuffer.readSlice(extraLength);
 
         // get the key if any
         if (keyLength != 0) {
-            ChannelBuffer keyBuffer = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN, keyLength);
-            channelBuffer.readBytes(keyBuffer);
+            ChannelBuffer keyBuffer = channelBuffer.readBytes(keyLength);
 
             ArrayList<Key> keys = new ArrayList<Key>();
-            keys.add(new Key(keyBuffer.copy()));
+            keys.add(new Key(keyBuffer));
 
             cmdMessage.keys = keys;
 
@@ -150,22 +146,23 @@ public class MemcachedBinaryCommandDecoder extends FrameDecoder {
                     cmdType == Op.PREPEND)
             {
                 // TODO these are backwards from the spec, but seem to be what spymemcached demands -- which has the mistake?!
-                long expire = ((short) (extrasBuffer.capacity() != 0 ? extrasBuffer.readUnsignedShort() : 0)) * 1000;
+                long expire = LocalCacheElement.expiry((short) (extrasBuffer.capacity() != 0 ? extrasBuffer.readUnsignedShort() : 0));
                 short flags = (short) (extrasBuffer.capacity() != 0 ? extrasBuffer.readUnsignedShort() : 0);
 
                 // the remainder of the message -- that is, totalLength - (keyLength + extraLength) should be the payload
                 int size = totalBodyLength - keyLength - extraLength;
 
-                cmdMessage.element = new LocalCacheElement(new Key(keyBuffer.slice()), flags, expire != 0 && expire < CacheElement.THIRTY_DAYS ? LocalCacheElement.Now() + expire : expire, 0L);
-                ChannelBuffer data = ChannelBuffers.buffer(size);
-                channelBuffer.readBytes(data);
-                cmdMessage.element.setData(data);
+                cmdMessage.element = new LocalCacheElement(new Key(keyBuffer.slice()), flags, expire, 0L);
+                cmdMessage.element.setData(channelBuffer.readBytes(size));
             } else if (cmdType == Op.INCR || cmdType == Op.DECR) {
-                long initialValue = extrasBuffer.readUnsignedInt();
-                long amount = extrasBuffer.readUnsignedInt();
+                // 64 bit amount and initial value, then a 32 bit expiration
+                long amount = extrasBuffer.readLong();
+                long initialValue = extrasBuffer.readLong();
                 long expiration = extrasBuffer.readUnsignedInt();
+                if (amount < 0) throw new MalformedCommandException("invalid numeric delta argument");
 
-                cmdMessage.incrAmount = (int) amount;
+                cmdMessage.incrAmount = amount;
+                cmdMessage.incrInitial = initialValue;
                 cmdMessage.incrExpiry = (int) expiration;
             }
         }
@@ -1,28 +1,54 @@
 package com.thimbleware.jmemcached.protocol.binary;
 
 import com.thimbleware.jmemcached.Cache;
+import com.thimbleware.jmemcached.protocol.CommandLatency;
 import com.thimbleware.jmemcached.protocol.MemcachedCommandHandler;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 
+import java.util.concurrent.Executor;
+
 
 public class MemcachedBinaryPipelineFactory implements ChannelPipelineFactory {
 
-    private final MemcachedBinaryCommandDecoder decoder =  new MemcachedBinaryCommandDecoder();
     private final MemcachedCommandHandler memcachedCommandHandler;
     private final MemcachedBinaryResponseEncoder memcachedBinaryResponseEncoder = new MemcachedBinaryResponseEncoder();
+    private final ChannelHandler[] connectionHandlers;
 
     public MemcachedBinaryPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, DefaultChannelGroup channelGroup) {
-        memcachedCommandHandler = new MemcachedCommandHandler(cache, version, verbose, idleTime, channelGroup);
+        this(cache, version, verbose, idleTime, channelGroup, null);
+    }
+
+    public MemcachedBinaryPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, DefaultChannelGroup channelGroup, Executor slowCommandExecutor) {
+        this(cache, version, verbose, idleTime, channelGroup, slowCommandExecutor, new ChannelHandler[0]);
+    }
+
+    /**
+     * @param connectionHandlers sharable handlers placed at the head of every pipeline, ahead of the protocol
+     * handlers, for connection level concerns such as flow control
+     */
+    public MemcachedBinaryPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, DefaultChannelGroup channelGroup, Executor slowCommandExecutor, ChannelHandler[] connectionHandlers) {
+        this(cache, version, verbose, idleTime, channelGroup, slowCommandExecutor, connectionHandlers, new CommandLatency());
+    }
+
+    /**
+     * @param connectionHandlers sharable handlers placed at the head of every pipeline, ahead of the protocol
+     * handlers, for connection level concerns such as flow control
+     * @param latency where to record command run times, shared with the daemon's other pipelines
+     */
+    public MemcachedBinaryPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, DefaultChannelGroup channelGroup, Executor slowCommandExecutor, ChannelHandler[] connectionHandlers, CommandLatency latency) {
+        this.connectionHandlers = connectionHandlers;
+        memcachedCommandHandler = new MemcachedCommandHandler(cache, version, verbose, idleTime, channelGroup, slowCommandExecutor, latency);
     }
 
     public ChannelPipeline getPipeline() throws Exception {
-        return Channels.pipeline(
-                decoder,
-                memcachedCommandHandler,
-                memcachedBinaryResponseEncoder
-        );
+        ChannelPipeline pipeline = Channels.pipeline(connectionHandlers);
+        pipeline.addLast("decoder", new MemcachedBinaryCommandDecoder());
+        pipeline.addLast("handler", memcachedCommandHandler);
+        pipeline.addLast("encoder", memcachedBinaryResponseEncoder);
+        return pipeline;
     }
 }
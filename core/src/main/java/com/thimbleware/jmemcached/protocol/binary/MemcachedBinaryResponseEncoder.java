@@ -4,6 +4,8 @@ import com.thimbleware.jmemcached.protocol.Op;
 import com.thimbleware.jmemcached.protocol.ResponseMessage;
 import com.thimbleware.jmemcached.protocol.exceptions.UnknownCommandException;
 import com.thimbleware.jmemcached.CacheElement;
+import com.thimbleware.jmemcached.Stats;
+import com.thimbleware.jmemcached.util.BufferUtils;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.*;
@@ -11,21 +13,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteOrder;
-import java.util.Set;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- *
+ * Shared by every binary pipeline. The responses to quiet commands held back for a connection are kept in its
+ * context attachment, created the first time the connection sends one.
  */
 // TODO refactor so this can be unit tested separate from netty? scalacheck?
 @ChannelHandler.Sharable
 public class MemcachedBinaryResponseEncoder<CACHE_ELEMENT extends CacheElement> extends SimpleChannelUpstreamHandler {
 
-    private ConcurrentHashMap<Integer, ChannelBuffer> corkedBuffers = new ConcurrentHashMap<Integer, ChannelBuffer>();
-
     final Logger logger = LoggerFactory.getLogger(MemcachedBinaryResponseEncoder.class);
 
+    private static final int HEADER_LENGTH = 24;
+
     public static enum ResponseCode {
         OK(0x0000),
         KEYNF(0x0001),
@@ -66,6 +67,8 @@ public class MemcachedBinaryResponseEncoder<CACHE_ELEMENT extends CacheElement>
                     return ResponseCode.OK;
                 case NOT_FOUND:
                     return ResponseCode.KEYNF;
+                case EXISTS:
+                    return ResponseCode.KEYEXISTS;
             }
         } else if (cmd == Op.STATS) {
             return ResponseCode.OK;
@@ -81,24 +84,47 @@ public class MemcachedBinaryResponseEncoder<CACHE_ELEMENT extends CacheElement>
 
     public ChannelBuffer constructHeader(MemcachedBinaryCommandDecoder.BinaryOp bcmd, ChannelBuffer extrasBuffer, ChannelBuffer keyBuffer, ChannelBuffer valueBuffer, short responseCode, int opaqueValue, long casUnique) {
         // take the ResponseMessage and turn it into a binary payload.
-        ChannelBuffer header = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN, 24);
+        ChannelBuffer header = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN, HEADER_LENGTH);
+        writeHeader(header, bcmd, keyBuffer != null ? keyBuffer.capacity() : 0, extrasBuffer != null ? extrasBuffer.capacity() : 0,
+                valueBuffer != null ? valueBuffer.capacity() : 0, responseCode, opaqueValue, casUnique);
+        return header;
+    }
+
+    private static void writeHeader(ChannelBuffer header, MemcachedBinaryCommandDecoder.BinaryOp bcmd, int keyLength, int extrasLength, int dataLength, short responseCode, int opaqueValue, long casUnique) {
         header.writeByte((byte)0x81);  // magic
         header.writeByte(bcmd.code); // opcode
-        short keyLength = (short) (keyBuffer != null ? keyBuffer.capacity() :0);
-
-        header.writeShort(keyLength);
-        int extrasLength = extrasBuffer != null ? extrasBuffer.capacity() : 0;
+        header.writeShort((short) keyLength);
         header.writeByte((byte) extrasLength); // extra length = flags + expiry
         header.writeByte((byte)0); // data type unused
         header.writeShort(responseCode); // status code
-
-        int dataLength = valueBuffer != null ? valueBuffer.capacity() : 0;
         header.writeInt(dataLength + keyLength + extrasLength); // data length
         header.writeInt(opaqueValue); // opaque
-
         header.writeLong(casUnique);
+    }
 
-        return header;
+    /**
+     * Render the whole stats response, a packet for each stat and the empty one ending it, into one buffer sized
+     * up front, so it goes out in one write.
+     */
+    private static ChannelBuffer statsResponse(MemcachedBinaryCommandDecoder.BinaryOp bcmd, Stats stats, short responseCode, int opaqueValue) {
+        int size = HEADER_LENGTH;
+        for (int i = 0; i < stats.size(); i++)
+            size += HEADER_LENGTH + stats.getName(i).length() + valueLength(stats, i);
+
+        ChannelBuffer out = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN, size);
+        for (int i = 0; i < stats.size(); i++) {
+            String name = stats.getName(i);
+            writeHeader(out, bcmd, name.length(), 0, valueLength(stats, i), responseCode, opaqueValue, 0);
+            BufferUtils.writeAscii(out, name);
+            if (stats.isNumber(i)) BufferUtils.writeLong(out, stats.getNumber(i));
+            else BufferUtils.writeAscii(out, stats.getText(i));
+        }
+        writeHeader(out, bcmd, 0, 0, 0, responseCode, opaqueValue, 0);
+        return out;
+    }
+
+    private static int valueLength(Stats stats, int i) {
+        return stats.isNumber(i) ? BufferUtils.longSize(stats.getNumber(i)) : stats.getText(i).length();
     }
 
     /**
@@ -151,13 +177,13 @@ public class MemcachedBinaryResponseEncoder<CACHE_ELEMENT extends CacheElement>
                 if (element != null) {
                     valueBuffer = ChannelBuffers.wrappedBuffer(element.getData());
                 } else {
-                    valueBuffer = ChannelBuffers.buffer(0);
+                    valueBuffer = ChannelBuffers.EMPTY_BUFFER;
                 }
-            } else if (command.cmd.op == Op.INCR || command.cmd.op == Op.DECR) {
+            } else if ((command.cmd.op == Op.INCR || command.cmd.op == Op.DECR) && command.incrDecrResponse != null) {
                 valueBuffer = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN, 8);
                 valueBuffer.writeLong(command.incrDecrResponse);
             }
-        } else if (command.cmd.op == Op.INCR || command.cmd.op == Op.DECR) {
+        } else if ((command.cmd.op == Op.INCR || command.cmd.op == Op.DECR) && command.incrDecrResponse != null) {
             valueBuffer = ChannelBuffers.buffer(ByteOrder.BIG_ENDIAN, 8);
             valueBuffer.writeLong(command.incrDecrResponse);
         }
@@ -167,30 +193,13 @@ public class MemcachedBinaryResponseEncoder<CACHE_ELEMENT extends CacheElement>
             casUnique = command.elements[0].getCasUnique();
         }
 
-        // stats is special -- with it, we write N times, one for each stat, then an empty payload
+        // stats is special -- with it, we send a packet for each stat, then an empty one, all in one buffer
         if (command.cmd.op == Op.STATS) {
             // first uncork any corked buffers
-            if (corkedBuffers.containsKey(command.cmd.opaque)) uncork(command.cmd.opaque, messageEvent.getChannel());
-
-            for (Map.Entry<String, Set<String>> statsEntries : command.stats.entrySet()) {
-                for (String stat : statsEntries.getValue()) {
-
-                    keyBuffer = ChannelBuffers.wrappedBuffer(ByteOrder.BIG_ENDIAN, statsEntries.getKey().getBytes(MemcachedBinaryCommandDecoder.USASCII));
-                    valueBuffer = ChannelBuffers.wrappedBuffer(ByteOrder.BIG_ENDIAN, stat.getBytes(MemcachedBinaryCommandDecoder.USASCII));
-
-                    ChannelBuffer headerBuffer = constructHeader(bcmd, extrasBuffer, keyBuffer, valueBuffer, getStatusCode(command).code, command.cmd.opaque, casUnique);
-
-                    writePayload(messageEvent, extrasBuffer, keyBuffer, valueBuffer, headerBuffer);
-                }
-            }
-
-            keyBuffer = null;
-            valueBuffer = null;
-
-            ChannelBuffer headerBuffer = constructHeader(bcmd, extrasBuffer, keyBuffer, valueBuffer, getStatusCode(command).code, command.cmd.opaque, casUnique);
-
-            writePayload(messageEvent, extrasBuffer, keyBuffer, valueBuffer, headerBuffer);
+            uncork(channelHandlerContext, command.cmd.opaque);
 
+            ChannelBuffer response = statsResponse(bcmd, command.stats, getStatusCode(command).code, command.cmd.opaque);
+            if (messageEvent.getChannel().isOpen()) messageEvent.getChannel().write(response);
         } else {
             ChannelBuffer headerBuffer = constructHeader(bcmd, extrasBuffer, keyBuffer, valueBuffer, getStatusCode(command).code, command.cmd.opaque, casUnique);
 
@@ -200,7 +209,7 @@ public class MemcachedBinaryResponseEncoder<CACHE_ELEMENT extends CacheElement>
                 int totalCapacity = headerBuffer.capacity() + (extrasBuffer != null ? extrasBuffer.capacity() : 0)
                         + (keyBuffer != null ? keyBuffer.capacity() : 0) + (valueBuffer != null ? valueBuffer.capacity() : 0);
 
-                ChannelBuffer corkedResponse  = cork(command.cmd.opaque, totalCapacity);
+                ChannelBuffer corkedResponse  = cork(channelHandlerContext, command.cmd.opaque, totalCapacity);
 
 
                 corkedResponse.writeBytes(headerBuffer);
@@ -212,15 +221,21 @@ public class MemcachedBinaryResponseEncoder<CACHE_ELEMENT extends CacheElement>
                     corkedResponse.writeBytes(valueBuffer);
             } else {
                 // first write out any corked responses
-                 if (corkedBuffers.containsKey(command.cmd.opaque)) uncork(command.cmd.opaque, messageEvent.getChannel());
-                
+                uncork(channelHandlerContext, command.cmd.opaque);
 
                 writePayload(messageEvent, extrasBuffer, keyBuffer, valueBuffer, headerBuffer);
             }
         }
     }
 
-    private ChannelBuffer cork(int opaque, int totalCapacity) {
+    @SuppressWarnings("unchecked")
+    private ChannelBuffer cork(ChannelHandlerContext ctx, int opaque, int totalCapacity) {
+        ConcurrentHashMap<Integer, ChannelBuffer> corkedBuffers = (ConcurrentHashMap<Integer, ChannelBuffer>) ctx.getAttachment();
+        if (corkedBuffers == null) {
+            corkedBuffers = new ConcurrentHashMap<Integer, ChannelBuffer>();
+            ctx.setAttachment(corkedBuffers);
+        }
+
         if (corkedBuffers.containsKey(opaque)) {
             ChannelBuffer corkedResponse = corkedBuffers.get(opaque);
             ChannelBuffer oldBuffer = corkedResponse;
@@ -238,11 +253,13 @@ public class MemcachedBinaryResponseEncoder<CACHE_ELEMENT extends CacheElement>
         }
     }
 
-    private void uncork(int opaque, Channel channel) {
-        ChannelBuffer corkedBuffer = corkedBuffers.get(opaque);
-        assert corkedBuffer !=  null;
-        channel.write(corkedBuffer);
-        corkedBuffers.remove(opaque);
+    @SuppressWarnings("unchecked")
+    private void uncork(ChannelHandlerContext ctx, int opaque) {
+        ConcurrentHashMap<Integer, ChannelBuffer> corkedBuffers = (ConcurrentHashMap<Integer, ChannelBuffer>) ctx.getAttachment();
+        if (corkedBuffers == null) return;
+
+        ChannelBuffer corkedBuffer = corkedBuffers.remove(opaque);
+        if (corkedBuffer != null) ctx.getChannel().write(corkedBuffer);
     }
 
     private void writePayload(MessageEvent messageEvent, ChannelBuffer extrasBuffer, ChannelBuffer keyBuffer, ChannelBuffer valueBuffer, ChannelBuffer headerBuffer) {
@@ -1,11 +1,12 @@
 package com.thimbleware.jmemcached.protocol.text;
 
-import com.thimbleware.jmemcached.CacheElement;
 import com.thimbleware.jmemcached.Key;
 import com.thimbleware.jmemcached.LocalCacheElement;
 import com.thimbleware.jmemcached.protocol.CommandMessage;
+import com.thimbleware.jmemcached.protocol.MetaFlags;
 import com.thimbleware.jmemcached.protocol.Op;
 import com.thimbleware.jmemcached.protocol.SessionStatus;
+import com.thimbleware.jmemcached.protocol.exceptions.ClientException;
 import com.thimbleware.jmemcached.protocol.exceptions.IncorrectlyTerminatedPayloadException;
 import com.thimbleware.jmemcached.protocol.exceptions.InvalidProtocolStateException;
 import com.thimbleware.jmemcached.protocol.exceptions.MalformedCommandException;
@@ -29,13 +30,32 @@ import java.util.List;
 public final class MemcachedCommandDecoder extends FrameDecoder {
 
     private static final int MIN_BYTES_LINE = 2;
+
+    /**
+     * Default limit on the size of a value.
+     */
+    public static final int DEFAULT_MAX_VALUE_SIZE = 32 * 1024 * 1024;
+
     private SessionStatus status;
+    private final int maxValueSize;
+
+    // the pieces of the line being parsed; reused from line to line, as commands keep the pieces but never the list
+    private final List<ChannelBuffer> pieces = new ArrayList<ChannelBuffer>(6);
 
     private static final ChannelBuffer NOREPLY = ChannelBuffers.wrappedBuffer("noreply".getBytes());
 
 
     public MemcachedCommandDecoder(SessionStatus status) {
+        this(status, DEFAULT_MAX_VALUE_SIZE);
+    }
+
+    /**
+     * @param status       the session status
+     * @param maxValueSize the largest value a storage command may carry; larger ones are refused
+     */
+    public MemcachedCommandDecoder(SessionStatus status, int maxValueSize) {
         this.status = status;
+        this.maxValueSize = maxValueSize;
     }
 
     /**
@@ -59,7 +79,7 @@ public final class MemcachedCommandDecoder extends FrameDecoder {
             ChannelBuffer in = buffer.slice();
 
             // split into pieces
-            List<ChannelBuffer> pieces = new ArrayList<ChannelBuffer>(6);
+            pieces.clear();
             if (in.readableBytes() < MIN_BYTES_LINE) return null;
             int pos = in.bytesBefore(CRLF_OR_WS);
             boolean eol = false;
@@ -81,32 +101,40 @@ public final class MemcachedCommandDecoder extends FrameDecoder {
             }
             if (status.state != SessionStatus.State.WAITING_FOR_DATA) status.ready();
         } else if (status.state == SessionStatus.State.WAITING_FOR_DATA) {
-            if (buffer.readableBytes() >= status.bytesNeeded + MemcachedResponseEncoder.CRLF.capacity()) {
-
-                // verify delimiter matches at the right location
-                ChannelBuffer dest = buffer.slice(buffer.readerIndex() + status.bytesNeeded, MIN_BYTES_LINE);
-
-                if (!dest.equals(MemcachedResponseEncoder.CRLF)) {
-                    // before we throw error... we're ready for the next command
-                    status.ready();
+            // the value is copied out as it arrives, into the buffer allocated at its full size when the command
+            // line was read. So a large value is never built up in (and recopied as it grows) the cumulation
+            // buffer, and the stored value doesn't alias the cumulation, whose bytes get moved as it is compacted
+            ChannelBuffer data = status.cmd.element.getData();
+            if (data.writable()) {
+                buffer.readBytes(data, Math.min(data.writableBytes(), buffer.readableBytes()));
+                if (data.writable()) return null;
+            }
+            if (buffer.readableBytes() < MIN_BYTES_LINE) return null;
 
-                    // error, no delimiter at end of payload
-                    throw new IncorrectlyTerminatedPayloadException("payload not terminated correctly");
-                } else {
-                    status.processingMultiline();
+            // verify delimiter matches at the right location
+            ChannelBuffer dest = buffer.slice(buffer.readerIndex(), MIN_BYTES_LINE);
 
-                    // There's enough bytes in the buffer and the delimiter is at the end. Read it.
-                    ChannelBuffer result = buffer.slice(buffer.readerIndex(), status.bytesNeeded);
+            if (!dest.equals(MemcachedResponseEncoder.CRLF)) {
+                // before we throw error... we're ready for the next command
+                status.ready();
 
-                    buffer.skipBytes(status.bytesNeeded + MemcachedResponseEncoder.CRLF.capacity());
+                // error, no delimiter at end of payload
+                throw new IncorrectlyTerminatedPayloadException("payload not terminated correctly");
+            } else {
+                status.processingMultiline();
 
-                    CommandMessage commandMessage = continueSet(channel, status, result, ctx);
+                buffer.skipBytes(MemcachedResponseEncoder.CRLF.capacity());
 
-                    if (status.state != SessionStatus.State.WAITING_FOR_DATA) status.ready();
+                CommandMessage commandMessage = status.cmd;
+                status.ready();
 
-                    return commandMessage;
-                }
+                return commandMessage;
             }
+        } else if (status.state == SessionStatus.State.SWALLOWING_DATA) {
+            int skip = Math.min(status.bytesNeeded, buffer.readableBytes());
+            buffer.skipBytes(skip);
+            status.bytesNeeded -= skip;
+            if (status.bytesNeeded == 0) status.ready();
         } else {
             throw new InvalidProtocolStateException("invalid protocol state");
         }
@@ -162,7 +190,7 @@ public final class MemcachedCommandDecoder extends FrameDecoder {
                     throw new MalformedCommandException("invalid increment command");
 
                 cmd.setKey(parts.get(1));
-                cmd.incrAmount = BufferUtils.atoi(parts.get(MIN_BYTES_LINE));
+                cmd.incrAmount = delta(parts.get(MIN_BYTES_LINE));
 
                 if (numParts == 3 && parts.get(MIN_BYTES_LINE).equals(NOREPLY)) {
                     cmd.noreply = true;
@@ -203,9 +231,9 @@ public final class MemcachedCommandDecoder extends FrameDecoder {
 
                 // Fill in all the elements of the command
                 int size = BufferUtils.atoi(parts.get(4));
-                long expire = BufferUtils.atoi(parts.get(3)) * 1000;
+                long expire = LocalCacheElement.expiry(BufferUtils.atoi(parts.get(3)));
                 int flags = BufferUtils.atoi(parts.get(MIN_BYTES_LINE));
-                cmd.element = new LocalCacheElement(new Key(parts.get(1).slice()), flags, expire != 0 && expire < CacheElement.THIRTY_DAYS ? LocalCacheElement.Now() + expire : expire, 0L);
+                cmd.element = new LocalCacheElement(new Key(parts.get(1).copy()), flags, expire, 0L);
 
                 // look for cas and "noreply" elements
                 if (numParts > 5) {
@@ -220,8 +248,34 @@ public final class MemcachedCommandDecoder extends FrameDecoder {
 
                 // Now indicate that we need more for this command by changing the session status's state.
                 // This instructs the frame decoder to start collecting data for us.
-                status.needMore(size, cmd);
+                expectData(cmd, size, channelHandlerContext);
+                break;
+
+            case MG:
+            case MD:
+            case MA:
+                // <op> <key> <flags>*
+                if (numParts < MIN_BYTES_LINE)
+                    throw new MalformedCommandException("invalid meta command");
+
+                cmd.setKey(parts.get(1));
+                cmd.meta = parseMetaFlags(op, parts, MIN_BYTES_LINE);
+
+                return cmd;
+            case MS:
+                // ms <key> <datalen> <flags>*
+                if (numParts < 3)
+                    throw new MalformedCommandException("invalid meta set command");
+
+                MetaFlags meta = parseMetaFlags(op, parts, 3);
+                cmd.meta = meta;
+                cmd.element = new LocalCacheElement(new Key(parts.get(1).copy()), meta.clientFlags, meta.ttl == -1 ? 0 : LocalCacheElement.expiry(meta.ttl), 0L);
+
+                // same as the classic storage commands; wait for the data block
+                expectData(cmd, BufferUtils.atoi(parts.get(MIN_BYTES_LINE)), channelHandlerContext);
                 break;
+            case MN:
+                return cmd;
 
             //
             case GET:
@@ -242,15 +296,123 @@ public final class MemcachedCommandDecoder extends FrameDecoder {
     }
 
     /**
-     * Handles the continuation of a SET/ADD/REPLACE command with the data it was waiting for.
+     * Parse the flags of a meta command. Each flag is a single character, optionally followed directly by a token.
+     *
+     * @param op    the meta command
+     * @param parts the (originally space separated) parts of the command
+     * @param first the index of the first flag in parts
+     * @return the parsed flags
+     * @throws MalformedCommandException on an unsupported flag
+     */
+    private MetaFlags parseMetaFlags(Op op, List<ChannelBuffer> parts, int first) throws MalformedCommandException {
+        MetaFlags meta = new MetaFlags(op == Op.MA ? (byte) 'I' : (byte) 'S');
+        StringBuilder returned = new StringBuilder();
+
+        for (int i = first; i < parts.size(); i++) {
+            ChannelBuffer part = parts.get(i);
+            if (part.capacity() == 0) continue;
+
+            byte flag = part.getByte(0);
+            ChannelBuffer token = part.slice(1, part.capacity() - 1);
+            switch (flag) {
+                case 'v':
+                    meta.value = true;
+                    break;
+                case 'q':
+                    meta.quiet = true;
+                    break;
+                case 'I':
+                    meta.invalidate = true;
+                    break;
+                case 'c':
+                case 'f':
+                case 'h':
+                case 'k':
+                case 'l':
+                case 's':
+                case 't':
+                    returned.append((char) flag);
+                    break;
+                case 'O':
+                    meta.opaque = token;
+                    returned.append((char) flag);
+                    break;
+                case 'C':
+                    meta.compareCas = BufferUtils.atol(token);
+                    break;
+                case 'T':
+                    meta.ttl = BufferUtils.atoi(token);
+                    break;
+                case 'N':
+                    meta.vivifyTtl = BufferUtils.atoi(token);
+                    break;
+                case 'R':
+                    meta.recacheTtl = BufferUtils.atoi(token);
+                    break;
+                case 'F':
+                    meta.clientFlags = BufferUtils.atoi(token);
+                    break;
+                case 'D':
+                    meta.delta = delta(token);
+                    break;
+                case 'J':
+                    meta.initial = delta(token);
+                    break;
+                case 'M':
+                    if (token.capacity() != 1)
+                        throw new MalformedCommandException("invalid meta mode");
+                    meta.mode = (byte) Character.toUpperCase((char) token.getByte(0));
+                    break;
+                case 'u':
+                    // don't bump the item in the LRU; the storage keeps its own order, so there's nothing to skip
+                    break;
+                default:
+                    throw new MalformedCommandException("unsupported meta flag: " + (char) flag);
+            }
+        }
+        meta.returned = returned.toString();
+
+        return meta;
+    }
+
+    /**
+     * Parse an incr/decr amount. Counters are unsigned 64 bit, but amounts are limited to 2^63 - 1, so they can be
+     * passed on signed.
      *
-     * @param channel               netty channel
-     * @param state                 the current session status (unused)
-     * @param remainder             the bytes picked up
-     * @param channelHandlerContext netty channel handler context
+     * @param amount the amount, in decimal
+     * @return the amount
+     * @throws MalformedCommandException if it isn't a decimal in range
      */
-    private CommandMessage continueSet(Channel channel, SessionStatus state, ChannelBuffer remainder, ChannelHandlerContext channelHandlerContext) {
-        state.cmd.element.setData(remainder);
-        return state.cmd;
+    private static long delta(ChannelBuffer amount) throws MalformedCommandException {
+        long delta;
+        try {
+            delta = BufferUtils.atoul(amount);
+        } catch (NumberFormatException e) {
+            throw new MalformedCommandException("invalid numeric delta argument");
+        }
+        if (delta < 0) throw new MalformedCommandException("invalid numeric delta argument");
+        return delta;
+    }
+
+    /**
+     * Set the session up to receive the data block of a storage command.
+     *
+     * @param cmd                   the storage command
+     * @param size                  the length of its data block
+     * @param channelHandlerContext the netty channel handler context
+     * @throws MalformedCommandException on a negative length
+     */
+    private void expectData(CommandMessage cmd, int size, ChannelHandlerContext channelHandlerContext) throws MalformedCommandException {
+        if (size < 0) throw new MalformedCommandException("invalid data length");
+
+        if (size > maxValueSize) {
+            // refuse it straight away, and drop the data block as it arrives rather than take it for commands
+            status.swallow(size + MemcachedResponseEncoder.CRLF.capacity());
+            Channels.fireExceptionCaught(channelHandlerContext, new ClientException("object too large for cache"));
+            return;
+        }
+
+        cmd.element.setData(ChannelBuffers.buffer(size));
+        status.needMore(size, cmd);
     }
 }
@@ -1,14 +1,17 @@
 package com.thimbleware.jmemcached.protocol.text;
 
 import com.thimbleware.jmemcached.Cache;
+import com.thimbleware.jmemcached.protocol.CommandLatency;
 import com.thimbleware.jmemcached.protocol.MemcachedCommandHandler;
 import com.thimbleware.jmemcached.protocol.SessionStatus;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 
 import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
 
 /**
  */
@@ -26,24 +29,48 @@ public final class MemcachedPipelineFactory implements ChannelPipelineFactory {
 
     private final MemcachedCommandHandler memcachedCommandHandler;
 
+    private final ChannelHandler[] connectionHandlers;
+
 
     public MemcachedPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, int frameSize, DefaultChannelGroup channelGroup) {
+        this(cache, version, verbose, idleTime, frameSize, channelGroup, null);
+    }
+
+    public MemcachedPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, int frameSize, DefaultChannelGroup channelGroup, Executor slowCommandExecutor) {
+        this(cache, version, verbose, idleTime, frameSize, channelGroup, slowCommandExecutor, new ChannelHandler[0]);
+    }
+
+    /**
+     * @param connectionHandlers sharable handlers placed at the head of every pipeline, ahead of the protocol
+     * handlers, for connection level concerns such as flow control
+     */
+    public MemcachedPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, int frameSize, DefaultChannelGroup channelGroup, Executor slowCommandExecutor, ChannelHandler[] connectionHandlers) {
+        this(cache, version, verbose, idleTime, frameSize, channelGroup, slowCommandExecutor, connectionHandlers, new CommandLatency());
+    }
+
+    /**
+     * @param connectionHandlers sharable handlers placed at the head of every pipeline, ahead of the protocol
+     * handlers, for connection level concerns such as flow control
+     * @param latency where to record command run times, shared with the daemon's other pipelines
+     */
+    public MemcachedPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, int frameSize, DefaultChannelGroup channelGroup, Executor slowCommandExecutor, ChannelHandler[] connectionHandlers, CommandLatency latency) {
+        this.connectionHandlers = connectionHandlers;
         this.cache = cache;
         this.version = version;
         this.verbose = verbose;
         this.idleTime = idleTime;
         this.frameSize = frameSize;
         this.channelGroup = channelGroup;
-        memcachedCommandHandler = new MemcachedCommandHandler(this.cache, this.version, this.verbose, this.idleTime, this.channelGroup);
+        memcachedCommandHandler = new MemcachedCommandHandler(this.cache, this.version, this.verbose, this.idleTime, this.channelGroup, slowCommandExecutor, latency);
     }
 
     public final ChannelPipeline getPipeline() throws Exception {
-        SessionStatus status = new SessionStatus().ready();
-
-        return Channels.pipeline(
-                new MemcachedCommandDecoder(status),
-                memcachedCommandHandler,
-                memcachedResponseEncoder);
+        // the decoder and its session status are the only per connection handler state; the rest is shared
+        ChannelPipeline pipeline = Channels.pipeline(connectionHandlers);
+        pipeline.addLast("decoder", new MemcachedCommandDecoder(new SessionStatus(), frameSize));
+        pipeline.addLast("handler", memcachedCommandHandler);
+        pipeline.addLast("encoder", memcachedResponseEncoder);
+        return pipeline;
     }
 
 
@@ -2,6 +2,10 @@ package com.thimbleware.jmemcached.protocol.text;
 
 import com.thimbleware.jmemcached.Cache;
 import com.thimbleware.jmemcached.CacheElement;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.Stats;
+import com.thimbleware.jmemcached.protocol.MetaFlags;
 import com.thimbleware.jmemcached.protocol.Op;
 import com.thimbleware.jmemcached.protocol.ResponseMessage;
 import com.thimbleware.jmemcached.protocol.exceptions.ClientException;
@@ -13,12 +17,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static com.thimbleware.jmemcached.protocol.text.MemcachedPipelineFactory.*;
-import static java.lang.String.valueOf;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.Map;
 
 /**
  * Response encoder for the memcached text protocol. Produces strings destined for the StringEncoder
@@ -37,10 +38,50 @@ public final class MemcachedResponseEncoder<CACHE_ELEMENT extends CacheElement>
     private static final ChannelBuffer STORED = ChannelBuffers.copiedBuffer("STORED\r\n", USASCII);
     private static final ChannelBuffer DELETED = ChannelBuffers.copiedBuffer("DELETED\r\n", USASCII);
     private static final ChannelBuffer END = ChannelBuffers.copiedBuffer("END\r\n", USASCII);
+    private static final ChannelBuffer STAT = ChannelBuffers.copiedBuffer("STAT ", USASCII);
     private static final ChannelBuffer OK = ChannelBuffers.copiedBuffer("OK\r\n", USASCII);
     private static final ChannelBuffer ERROR = ChannelBuffers.copiedBuffer("ERROR\r\n", USASCII);
     private static final ChannelBuffer CLIENT_ERROR = ChannelBuffers.copiedBuffer("CLIENT_ERROR\r\n", USASCII);
 
+    // meta command status codes
+    private static final ChannelBuffer VA = ChannelBuffers.copiedBuffer("VA", USASCII);
+    private static final ChannelBuffer HD = ChannelBuffers.copiedBuffer("HD", USASCII);
+    private static final ChannelBuffer NS = ChannelBuffers.copiedBuffer("NS", USASCII);
+    private static final ChannelBuffer EX = ChannelBuffers.copiedBuffer("EX", USASCII);
+    private static final ChannelBuffer NF = ChannelBuffers.copiedBuffer("NF", USASCII);
+    private static final ChannelBuffer EN = ChannelBuffers.copiedBuffer("EN\r\n", USASCII);
+    private static final ChannelBuffer MN = ChannelBuffers.copiedBuffer("MN\r\n", USASCII);
+
+    /**
+     * Longest possible VALUE header line, less the key: "VALUE ", flags, size and cas unique, their separating
+     * spaces and the CRLF.
+     */
+    private static final int MAX_VALUE_HEADER_BYTES = 6 + 11 + 1 + 11 + 1 + 20 + 2;
+
+    /**
+     * Render the whole stats response, each "STAT name value" line and the END, into one buffer sized up front, so
+     * it goes out in one write.
+     */
+    private static ChannelBuffer statsResponse(Stats stats) {
+        int size = END.capacity();
+        for (int i = 0; i < stats.size(); i++) {
+            int valueSize = stats.isNumber(i) ? BufferUtils.longSize(stats.getNumber(i)) : stats.getText(i).length();
+            size += STAT.capacity() + stats.getName(i).length() + 1 + valueSize + CRLF.capacity();
+        }
+
+        ChannelBuffer out = ChannelBuffers.buffer(size);
+        for (int i = 0; i < stats.size(); i++) {
+            out.writeBytes(STAT, 0, STAT.capacity());
+            BufferUtils.writeAscii(out, stats.getName(i));
+            out.writeByte(' ');
+            if (stats.isNumber(i)) BufferUtils.writeLong(out, stats.getNumber(i));
+            else BufferUtils.writeAscii(out, stats.getText(i));
+            out.writeBytes(CRLF, 0, CRLF.capacity());
+        }
+        out.writeBytes(END, 0, END.capacity());
+        return out;
+    }
+
     /**
      * Handle exceptions in protocol processing. Exceptions are either client or internal errors.  Report accordingly.
      *
@@ -77,21 +118,33 @@ public final class MemcachedResponseEncoder<CACHE_ELEMENT extends CacheElement>
             case GETS:
                 CacheElement[] results = command.elements;
 
-                ChannelBuffer[] buffers = new ChannelBuffer[results.length * (9 + (cmd == Op.GETS ? 2 : 0)) + 1];
+                // every header line goes into one buffer sized for the worst case, numbers formatted in place; the
+                // values themselves are passed through uncopied
+                int headerBytes = 0;
+                for (CacheElement result : results) {
+                    if (result != null) headerBytes += MAX_VALUE_HEADER_BYTES + result.getKey().bytes.capacity();
+                }
+                ChannelBuffer headers = ChannelBuffers.buffer(headerBytes);
+
+                ChannelBuffer[] buffers = new ChannelBuffer[results.length * 3 + 1];
                 int i = 0;
                 for (CacheElement result : results) {
                     if (result != null) {
-                        buffers[i++] = VALUE;
-                        buffers[i++] = result.getKey().bytes;
-                        buffers[i++] = SPACE;
-                        buffers[i++] = BufferUtils.itoa(result.getFlags());
-                        buffers[i++] = SPACE;
-                        buffers[i++] = BufferUtils.itoa(result.size());
+                        int start = headers.writerIndex();
+                        ChannelBuffer key = result.getKey().bytes;
+                        headers.writeBytes(VALUE, 0, VALUE.capacity());
+                        headers.writeBytes(key, 0, key.capacity());
+                        headers.writeByte(' ');
+                        BufferUtils.writeInt(headers, result.getFlags());
+                        headers.writeByte(' ');
+                        BufferUtils.writeInt(headers, result.size());
                         if (cmd == Op.GETS) {
-                            buffers[i++] = SPACE;
-                            buffers[i++] = BufferUtils.ltoa(result.getCasUnique());
+                            headers.writeByte(' ');
+                            BufferUtils.writeLong(headers, result.getCasUnique());
                         }
-                        buffers[i++] = CRLF;
+                        headers.writeBytes(CRLF, 0, CRLF.capacity());
+
+                        buffers[i++] = headers.slice(start, headers.writerIndex() - start);
                         buffers[i++] = result.getData();
                         buffers[i++] = CRLF;
                     }
@@ -120,19 +173,7 @@ public final class MemcachedResponseEncoder<CACHE_ELEMENT extends CacheElement>
                     Channels.write(channel, incrDecrResponseString(command.incrDecrResponse));
                 break;
             case STATS:
-                for (Map.Entry<String, Set<String>> stat : command.stats.entrySet()) {
-                    for (String statVal : stat.getValue()) {
-                        StringBuilder builder = new StringBuilder();
-                        builder.append("STAT ");
-                        builder.append(stat.getKey());
-                        builder.append(" ");
-                        builder.append(String.valueOf(statVal));
-                        builder.append("\r\n");
-                        Channels.write(channel, ChannelBuffers.copiedBuffer(builder.toString(), USASCII));
-                    }
-                }
-                Channels.write(channel, END.duplicate());
-
+                Channels.write(channel, statsResponse(command.stats));
                 break;
             case VERSION:
                 Channels.write(channel, ChannelBuffers.copiedBuffer("VERSION " + command.version + "\r\n", USASCII));
@@ -150,6 +191,15 @@ public final class MemcachedResponseEncoder<CACHE_ELEMENT extends CacheElement>
                 break;
             case VERBOSITY:
                 break;
+            case MG:
+            case MS:
+            case MD:
+            case MA:
+                writeMetaResponse(channel, command);
+                break;
+            case MN:
+                Channels.write(channel, MN.duplicate());
+                break;
             default:
                 Channels.write(channel, ERROR.duplicate());
                 logger.error("error; unrecognized command: " + cmd);
@@ -160,15 +210,159 @@ public final class MemcachedResponseEncoder<CACHE_ELEMENT extends CacheElement>
 
     private ChannelBuffer deleteResponseString(Cache.DeleteResponse deleteResponse) {
         if (deleteResponse == Cache.DeleteResponse.DELETED) return DELETED.duplicate();
+        else if (deleteResponse == Cache.DeleteResponse.EXISTS) return EXISTS.duplicate();
         else return NOT_FOUND.duplicate();
     }
 
+    /**
+     * Write the response to a meta command: a two letter status code, the return flags the client asked for (in the
+     * order it asked for them), and for VA responses the data block.
+     * <p/>
+     * In quiet mode the uninteresting responses are left out entirely: EN for mg, HD for ms/md/ma and NF for md.
+     * EX, for a cas mismatch, is always sent.
+     */
+    private void writeMetaResponse(Channel channel, ResponseMessage<CACHE_ELEMENT> command) {
+        MetaFlags meta = command.cmd.meta;
+        CacheElement element = null;
+        ChannelBuffer status;
+        ChannelBuffer value = null;
 
-    private ChannelBuffer incrDecrResponseString(Integer ret) {
+        switch (command.cmd.op) {
+            case MG:
+                element = command.elements[0];
+                if (element == null) {
+                    if (!meta.quiet) Channels.write(channel, EN.duplicate());
+                    return;
+                }
+                if (meta.value) {
+                    status = VA;
+                    value = element.getData();
+                } else {
+                    if (meta.quiet) return;
+                    status = HD;
+                }
+                break;
+            case MS:
+                element = command.cmd.element;
+                if (meta.quiet && command.response == Cache.StoreResponse.STORED) return;
+                status = metaStoreResponse(command.response);
+                break;
+            case MD:
+                if (command.deleteResponse == Cache.DeleteResponse.EXISTS) {
+                    status = EX;
+                } else {
+                    if (meta.quiet) return;
+                    status = command.deleteResponse == Cache.DeleteResponse.DELETED ? HD : NF;
+                }
+                break;
+            default:
+                if (command.response == Cache.StoreResponse.EXISTS) {
+                    status = EX;
+                } else if (command.incrDecrResponse == null) {
+                    status = NF;
+                } else if (meta.value) {
+                    status = VA;
+                    value = BufferUtils.ultoa(command.incrDecrResponse);
+                } else {
+                    if (meta.quiet) return;
+                    status = HD;
+                }
+        }
+
+        ChannelBuffer line = ChannelBuffers.dynamicBuffer(64);
+        line.writeBytes(status, 0, status.capacity());
+        if (value != null) {
+            line.writeBytes(SPACE, 0, SPACE.capacity());
+            BufferUtils.writeInt(line, value.capacity());
+        }
+
+        for (int i = 0; i < meta.returned.length(); i++) {
+            char flag = meta.returned.charAt(i);
+            switch (flag) {
+                case 'k':
+                    Key key = command.cmd.keys != null ? command.cmd.keys.get(0) : command.cmd.element.getKey();
+                    line.writeByte(' ');
+                    line.writeByte(flag);
+                    line.writeBytes(key.bytes, 0, key.bytes.capacity());
+                    break;
+                case 'O':
+                    line.writeByte(' ');
+                    line.writeByte(flag);
+                    line.writeBytes(meta.opaque, 0, meta.opaque.capacity());
+                    break;
+                default:
+                    // the rest describe the item, which only mg and ms have to hand
+                    if (element == null) continue;
+                    line.writeByte(' ');
+                    line.writeByte(flag);
+                    writeElementFlag(line, flag, element);
+            }
+        }
+
+        // mg also reports the item's revalidation state: X for stale, W if this client won the recache token,
+        // Z if somebody else already has it
+        if (command.cmd.op == Op.MG) {
+            if (element.isStale()) {
+                line.writeByte(' ');
+                line.writeByte('X');
+            }
+            if (command.recacheToken != Cache.RecacheToken.NONE) {
+                line.writeByte(' ');
+                line.writeByte(command.recacheToken == Cache.RecacheToken.WON ? 'W' : 'Z');
+            }
+        }
+        line.writeBytes(CRLF, 0, CRLF.capacity());
+
+        if (value != null)
+            Channels.write(channel, ChannelBuffers.wrappedBuffer(line, value, CRLF.duplicate()));
+        else
+            Channels.write(channel, line);
+    }
+
+    private void writeElementFlag(ChannelBuffer line, char flag, CacheElement element) {
+        switch (flag) {
+            case 'c':
+                BufferUtils.writeLong(line, element.getCasUnique());
+                break;
+            case 'f':
+                BufferUtils.writeInt(line, element.getFlags());
+                break;
+            case 's':
+                BufferUtils.writeInt(line, element.size());
+                break;
+            case 'h':
+            case 'l':
+                // hits and last access time aren't tracked, so it's reported as never hit before, just accessed
+                line.writeByte('0');
+                break;
+            default:
+                BufferUtils.writeInt(line, LocalCacheElement.ttl(element.getExpire()));
+        }
+    }
+
+    private ChannelBuffer metaStoreResponse(Cache.StoreResponse storeResponse) {
+        switch (storeResponse) {
+            case EXISTS:
+                return EX;
+            case NOT_FOUND:
+                return NF;
+            case NOT_STORED:
+                return NS;
+            default:
+                return HD;
+        }
+    }
+
+
+    private ChannelBuffer incrDecrResponseString(Long ret) {
         if (ret == null)
             return NOT_FOUND.duplicate();
-        else
-            return ChannelBuffers.copiedBuffer(valueOf(ret) + "\r\n", USASCII);
+        else {
+            ChannelBuffer line = ChannelBuffers.buffer(22);
+            BufferUtils.writeUnsignedLong(line, ret);
+            line.writeBytes(CRLF, 0, CRLF.capacity());
+            return line;
+        }
     }
 
     /**
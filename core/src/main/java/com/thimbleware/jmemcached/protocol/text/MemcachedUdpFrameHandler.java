@@ -0,0 +1,124 @@
+package com.thimbleware.jmemcached.protocol.text;
+
+import com.thimbleware.jmemcached.protocol.CommandMessage;
+import com.thimbleware.jmemcached.protocol.Op;
+import com.thimbleware.jmemcached.protocol.SessionStatus;
+import com.thimbleware.jmemcached.protocol.exceptions.ClientException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames the text protocol for UDP, as memcached does: every datagram starts with an 8 byte header holding a
+ * request id, the datagram's sequence number, the number of datagrams in the message, and 2 reserved bytes.
+ * <p/>
+ * A request must fit in one datagram, and may only hold get and gets commands. Its responses are gathered up and
+ * sent back to its sender as one message, split over as many datagrams as it takes, each echoing the request id.
+ * <p/>
+ * One instance serves the one datagram channel. All of a channel's events arrive on its worker thread, and the
+ * handler and encoder behind this answer within the same call, so the request being answered is simply a field.
+ */
+public final class MemcachedUdpFrameHandler extends SimpleChannelHandler {
+
+    /**
+     * Length of the frame header on every datagram.
+     */
+    public static final int FRAME_HEADER_BYTES = 8;
+
+    /**
+     * Largest response datagram, header included; keeps responses under a typical ethernet MTU.
+     */
+    public static final int MAX_DATAGRAM_BYTES = 1400;
+
+    /**
+     * Largest request datagram read; anything beyond this is cut off.
+     */
+    public static final int MAX_REQUEST_BYTES = 8192;
+
+    private final SessionStatus status = new SessionStatus();
+    private final MemcachedCommandDecoder decoder;
+
+    private SocketAddress sender;
+    private List<ChannelBuffer> responses;
+
+    /**
+     * @param maxValueSize passed on to the command decoder
+     */
+    public MemcachedUdpFrameHandler(int maxValueSize) {
+        this.decoder = new MemcachedCommandDecoder(status, maxValueSize);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        ChannelBuffer datagram = (ChannelBuffer) e.getMessage();
+        if (datagram.readableBytes() < FRAME_HEADER_BYTES) return;
+
+        int requestId = datagram.readUnsignedShort();
+        int sequence = datagram.readUnsignedShort();
+        int total = datagram.readUnsignedShort();
+        datagram.skipBytes(2);
+        // like memcached, requests spanning several datagrams aren't taken
+        if (sequence != 0 || total != 1) return;
+
+        sender = e.getRemoteAddress();
+        responses = new ArrayList<ChannelBuffer>(1);
+        try {
+            status.ready();
+            while (datagram.readable()) {
+                Object command;
+                try {
+                    command = decoder.decode(ctx, e.getChannel(), datagram);
+                    if (command == null && status.state != SessionStatus.State.READY)
+                        throw new ClientException("only get and gets are served over UDP");
+                    if (command == null) break;
+                    Op op = ((CommandMessage) command).op;
+                    if (op != Op.GET && op != Op.GETS)
+                        throw new ClientException("only get and gets are served over UDP");
+                } catch (Exception ex) {
+                    Channels.fireExceptionCaught(ctx, ex);
+                    break;
+                }
+                Channels.fireMessageReceived(ctx, command, sender);
+            }
+
+            if (!responses.isEmpty())
+                writeResponse(ctx, requestId, ChannelBuffers.wrappedBuffer(responses.toArray(new ChannelBuffer[responses.size()])));
+        } finally {
+            sender = null;
+            responses = null;
+        }
+    }
+
+    /**
+     * Responses are held back until the whole request has been answered.
+     */
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (responses == null || !(e.getMessage() instanceof ChannelBuffer)) {
+            // not an answer to a request; with nobody to send it to, it's dropped
+            e.getFuture().setSuccess();
+            return;
+        }
+        responses.add((ChannelBuffer) e.getMessage());
+        e.getFuture().setSuccess();
+    }
+
+    private void writeResponse(ChannelHandlerContext ctx, int requestId, ChannelBuffer response) {
+        int payloadBytes = MAX_DATAGRAM_BYTES - FRAME_HEADER_BYTES;
+        int total = (response.readableBytes() + payloadBytes - 1) / payloadBytes;
+        for (int sequence = 0; sequence < total; sequence++) {
+            ChannelBuffer header = ChannelBuffers.buffer(FRAME_HEADER_BYTES);
+            header.writeShort(requestId);
+            header.writeShort(sequence);
+            header.writeShort(total);
+            header.writeShort(0);
+
+            ChannelBuffer payload = response.readSlice(Math.min(payloadBytes, response.readableBytes()));
+            Channels.write(ctx, Channels.future(ctx.getChannel()), ChannelBuffers.wrappedBuffer(header, payload), sender);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.thimbleware.jmemcached.protocol.text;
+
+import com.thimbleware.jmemcached.Cache;
+import com.thimbleware.jmemcached.protocol.CommandLatency;
+import com.thimbleware.jmemcached.protocol.MemcachedCommandHandler;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+
+/**
+ * Pipeline for the text protocol over UDP. There is one datagram channel per listening address, so this is called
+ * once for each rather than per client.
+ */
+public final class MemcachedUdpPipelineFactory implements ChannelPipelineFactory {
+
+    private final int frameSize;
+    private final MemcachedResponseEncoder memcachedResponseEncoder = new MemcachedResponseEncoder();
+    private final MemcachedCommandHandler memcachedCommandHandler;
+
+    public MemcachedUdpPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, int frameSize, DefaultChannelGroup channelGroup) {
+        this(cache, version, verbose, idleTime, frameSize, channelGroup, new CommandLatency());
+    }
+
+    /**
+     * @param latency where to record command run times, shared with the daemon's TCP pipelines
+     */
+    public MemcachedUdpPipelineFactory(Cache cache, String version, boolean verbose, int idleTime, int frameSize, DefaultChannelGroup channelGroup, CommandLatency latency) {
+        this.frameSize = frameSize;
+        memcachedCommandHandler = new MemcachedCommandHandler(cache, version, verbose, idleTime, channelGroup, null, latency);
+    }
+
+    public ChannelPipeline getPipeline() throws Exception {
+        ChannelPipeline pipeline = Channels.pipeline();
+        pipeline.addLast("frame", new MemcachedUdpFrameHandler(frameSize));
+        pipeline.addLast("handler", memcachedCommandHandler);
+        pipeline.addLast("encoder", memcachedResponseEncoder);
+        return pipeline;
+    }
+}
@@ -10,6 +10,29 @@ import java.util.concurrent.ConcurrentMap;
  * state of the storage unit and with additional support for explicit resource-cleanup (close()).
  */
 public interface CacheStorage<K, V extends SizedItem> extends ConcurrentMap<K, V> {
+
+    /**
+     * A change to a stored value, worked out from the value stored.
+     */
+    interface ValueUpdate<V> {
+        /**
+         * @param current the value currently stored
+         * @return the value to store in its place, or null to leave it as it is
+         */
+        V apply(V current);
+    }
+
+    /**
+     * An update which only adds bytes to the end of the stored value's data. Storages which lay values out flat
+     * may write just the added bytes where the value already lies, rather than storing the result of apply() anew.
+     */
+    interface ValueAppend<V> extends ValueUpdate<V> {
+        /**
+         * @return the number of bytes apply() adds to the end of the data
+         */
+        int appendedBytes();
+    }
+
     /**
      * @return the capacity (in bytes) of the storage
      */
@@ -20,11 +43,35 @@ public interface CacheStorage<K, V extends SizedItem> extends ConcurrentMap<K, V
      */
     long getMemoryUsed();
 
+    /**
+     * @return the number of items evicted to make room for others
+     */
+    long getEvictions();
+
     /**
      * @return the capacity (in # of items) of the storage
      */
     int capacity();
 
+    /**
+     * Look up a batch of keys at once. Implementations which partition their data under separate locks should
+     * group the keys by partition so that each lock is only taken once for the whole batch.
+     * @param keys the keys to look up
+     * @param values destination for the results; values[i] receives the value stored under keys[i], or null
+     */
+    void getMulti(K[] keys, V[] values);
+
+    /**
+     * Replace the value stored under a key with one computed from it, atomically: no other write to the key lands
+     * between the read and the replacement, so concurrent updates never fail or are lost. Implementations hold the
+     * key's lock (or its partition's) while the update runs, so it should be quick. It may be called again if a
+     * plain write to the key gets in first, so it must not depend on being called once.
+     * @param key the key to update
+     * @param update computes the new value
+     * @return the value now stored, or null if there was nothing stored or the update left it as it was
+     */
+    V computeIfPresent(K key, ValueUpdate<V> update);
+
     /**
      * Close the storage unit, deallocating any resources it might be currently holding.
      * @throws java.io.IOException thrown if IO faults occur anywhere during close.
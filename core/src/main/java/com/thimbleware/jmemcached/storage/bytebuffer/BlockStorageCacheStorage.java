@@ -34,8 +34,19 @@ public final class BlockStorageCacheStorage implements CacheStorage<Key, LocalCa
         this.maximumSizeBytes = maximumSizeBytes;
     }
 
+    /**
+     * @return the partitions, for monitoring
+     */
+    public Partition[] getPartitions() {
+        return partitions;
+    }
+
     private Partition pickPartition(Key key) {
-        return partitions[hash(key.hashCode()) & (partitions.length - 1)];
+        return partitions[partitionIndex(key)];
+    }
+
+    private int partitionIndex(Key key) {
+        return hash(key.hashCode()) & (partitions.length - 1);
     }
 
     public final long getMemoryCapacity() {
@@ -46,6 +57,13 @@ public final class BlockStorageCacheStorage implements CacheStorage<Key, LocalCa
         return capacity;
     }
 
+    /**
+     * The block store doesn't evict; a store into a full partition fails instead.
+     */
+    public final long getEvictions() {
+        return 0;
+    }
+
     public final long getMemoryUsed() {
         long memUsed = 0;
         for (Partition byteBufferBlockStore : partitions) {
@@ -107,91 +125,96 @@ public final class BlockStorageCacheStorage implements CacheStorage<Key, LocalCa
         Key key = (Key) okey;
         Partition partition = pickPartition(key);
 
-
+        // conditional, so the comparison has to happen under the write lock or another writer could slip in
+        // between it and the removal
+        partition.storageLock.writeLock().lock();
         try {
-            partition.storageLock.readLock().lock();
             Region region = partition.find(key);
-            if (region == null) return false;
-            else {
-                partition.storageLock.readLock().unlock();
-                partition.storageLock.writeLock().lock();
-                try {
-                    partition.blockStore.free(region);
-                    partition.remove(key, region);
-                    numberItems++;
-                    return true;
-                } finally {
-                    partition.storageLock.readLock().lock();
-                    partition.storageLock.writeLock().unlock();
-                }
+            if (region == null || !region.toValue().equals(value)) return false;
 
-            }
+            partition.blockStore.free(region);
+            partition.remove(key, region);
+            numberItems--;
+            return true;
         } finally {
-            partition.storageLock.readLock().unlock();
+            partition.storageLock.writeLock().unlock();
         }
     }
 
     public final boolean replace(Key key, LocalCacheElement original, LocalCacheElement replace) {
         Partition partition = pickPartition(key);
 
-        partition.storageLock.readLock().lock();
+        // as with remove(key, value), compare and replace under the one write lock
+        partition.storageLock.writeLock().lock();
         try {
             Region region = partition.find(key);
 
-            // not there? that's a fail
-            if (region == null) return false;
+            // not there, or not the value we expected? that's a fail
+            if (region == null || !region.toValue().equals(original)) return false;
 
-            // there, check for equivalence of value
-            LocalCacheElement el = null;
-            el = region.toValue();
-            if (!el.equals(original)) {
-                return false;
-            } else {
-                partition.storageLock.readLock().unlock();
-                partition.storageLock.writeLock().lock();
-                try {
-                    partition.remove(key, region);
-                    partition.add(key, replace);
-                    return true;
-                } finally {
-                    partition.storageLock.readLock().lock();
-                    partition.storageLock.writeLock().unlock();
-                }
+            // as in computeIfPresent, the replacement (which may read from the old value) is written out before the
+            // old region is dropped and its blocks handed back
+            partition.add(key, replace);
+            partition.remove(key, region);
+            partition.blockStore.free(region);
+            return true;
+        } finally {
+            partition.storageLock.writeLock().unlock();
+        }
+    }
 
-            }
+    /**
+     * {@inheritDoc}
+     *
+     * The update runs under the partition's write lock. Appends are written in place where there's room.
+     */
+    public final LocalCacheElement computeIfPresent(Key key, ValueUpdate<LocalCacheElement> update) {
+        Partition partition = pickPartition(key);
 
+        partition.storageLock.writeLock().lock();
+        try {
+            Region region = partition.find(key);
+            if (region == null) return null;
+
+            LocalCacheElement next = update.apply(region.toValue());
+            if (next == null) return null;
+
+            // an append can often be written where the value lies, into the rest of its last block or the free
+            // blocks after it, without copying what's already there
+            if (update instanceof ValueAppend && partition.append(key, region, next, ((ValueAppend) update).appendedBytes()))
+                return next;
+
+            // the new value is written out before the old one goes: if the store is full the key keeps its old
+            // value, and the new value never reads from blocks already handed back. Entries are appended to their
+            // bucket, so removing by key drops the old one.
+            partition.add(key, next);
+            partition.remove(key, region);
+            partition.blockStore.free(region);
+            return next;
         } finally {
-            partition.storageLock.readLock().unlock();
+            partition.storageLock.writeLock().unlock();
         }
     }
 
     public final LocalCacheElement replace(Key key, LocalCacheElement replace) {
         Partition partition = pickPartition(key);
 
-        partition.storageLock.readLock().lock();
+        // the region found is freed below, so it has to be found under the write lock too: found under the read
+        // lock, another writer could free it first
+        partition.storageLock.writeLock().lock();
         try {
             Region region = partition.find(key);
 
             // not there? that's a fail
             if (region == null) return null;
 
-            // there,
-            LocalCacheElement el = null;
-            el = region.toValue();
-            partition.storageLock.readLock().unlock();
-            partition.storageLock.writeLock().lock();
-            try {
-                partition.remove(key, region);
-                partition.add(key, replace);
-                return el;
-            } finally {
-                partition.storageLock.readLock().lock();
-                partition.storageLock.writeLock().unlock();
-            }
-
-
+            LocalCacheElement el = region.toValue();
+            partition.add(key, replace);
+            partition.remove(key, region);
+            partition.blockStore.free(region);
+            return el;
         } finally {
-            partition.storageLock.readLock().unlock();
+            partition.storageLock.writeLock().unlock();
         }
     }
 
@@ -237,6 +260,48 @@ public final class BlockStorageCacheStorage implements CacheStorage<Key, LocalCa
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Keys are bucketed by partition first (a counting sort over the partition index), so each partition's read
+     * lock is acquired once per batch rather than once per key.
+     */
+    public final void getMulti(Key[] keys, LocalCacheElement[] values) {
+        int numKeys = keys.length;
+        int[] owner = new int[numKeys];
+        int[] offsets = new int[partitions.length + 1];
+        for (int i = 0; i < numKeys; i++) {
+            owner[i] = partitionIndex(keys[i]);
+            offsets[owner[i] + 1]++;
+        }
+        for (int p = 0; p < partitions.length; p++) {
+            offsets[p + 1] += offsets[p];
+        }
+
+        // key positions ordered by partition; offsets[p] .. offsets[p + 1] belong to partition p
+        int[] order = new int[numKeys];
+        int[] fill = new int[partitions.length];
+        for (int i = 0; i < numKeys; i++) {
+            order[offsets[owner[i]] + fill[owner[i]]++] = i;
+        }
+
+        for (int p = 0; p < partitions.length; p++) {
+            if (offsets[p] == offsets[p + 1]) continue;
+
+            Partition partition = partitions[p];
+            partition.storageLock.readLock().lock();
+            try {
+                for (int o = offsets[p]; o < offsets[p + 1]; o++) {
+                    int i = order[o];
+                    Region region = partition.find(keys[i]);
+                    values[i] = region == null ? null : region.toValue();
+                }
+            } finally {
+                partition.storageLock.readLock().unlock();
+            }
+        }
+    }
+
     public final LocalCacheElement put(final Key key, final LocalCacheElement item) {
         Partition partition = pickPartition(key);
 
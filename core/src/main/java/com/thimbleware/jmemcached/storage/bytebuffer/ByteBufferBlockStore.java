@@ -24,6 +24,8 @@ public class ByteBufferBlockStore {
     private final int blockSizeBytes;
 
     private OpenBitSet allocated;
+
+    private long allocationFailures;
     private static final ByteBufferBlockStoreFactory BYTE_BUFFER_BLOCK_STORE_FACTORY = new ByteBufferBlockStoreFactory();
 
 
@@ -118,7 +120,10 @@ public class ByteBufferBlockStore {
 
     private int markPos(int numBlocks) {
         int mark = allocated.mark(numBlocks);
-        if (mark == -1) throw new BadAllocationException("unable to allocate room; all blocks consumed");
+        if (mark == -1) {
+            allocationFailures++;
+            throw new BadAllocationException("unable to allocate room; all blocks consumed");
+        }
         return mark;
     }
 
@@ -153,6 +158,32 @@ public class ByteBufferBlockStore {
         return new Region(desiredSize, numBlocks, pos, slice, expiry, timestamp);
     }
 
+    /**
+     * Grow a region where it lies, into the free blocks right after it.
+     *
+     * @param region the region to grow
+     * @param desiredSize size (in bytes) desired for the region
+     * @return the grown region, or null if the blocks it would need aren't free
+     */
+    public Region extend(Region region, int desiredSize) {
+        int numBlocks = (int) (roundUp(desiredSize, blockSizeBytes) / blockSizeBytes);
+        if (numBlocks > region.usedBlocks) {
+            int end = region.startBlock + region.usedBlocks;
+            int newEnd = region.startBlock + numBlocks;
+            if (newEnd > storeSizeBytes / blockSizeBytes) return null;
+
+            int taken = allocated.nextSetBit(end);
+            if (taken != -1 && taken < newEnd) return null;
+
+            allocated.set(end, newEnd);
+            freeBytes -= (long) (numBlocks - region.usedBlocks) * blockSizeBytes;
+        } else {
+            numBlocks = region.usedBlocks;
+        }
+
+        return new Region(desiredSize, numBlocks, region.startBlock, get(region.startBlock, desiredSize), region.expiry, region.timestamp);
+    }
+
     public ChannelBuffer get(int startBlock, int size) {
         return storageBuffer.slice(startBlock * blockSizeBytes, size);
     }
@@ -162,7 +193,7 @@ public class ByteBufferBlockStore {
         region.valid = false;
         region.slice = null;
         int pos = region.startBlock;
-        clear(pos, region.size / blockSizeBytes);
+        clear(pos, region.usedBlocks);
     }
 
     public void clear()
@@ -188,6 +219,34 @@ public class ByteBufferBlockStore {
         return freeBytes;
     }
 
+    /**
+     * @return the number of blocks in the store
+     */
+    public long getBlockCount() {
+        return storeSizeBytes / blockSizeBytes;
+    }
+
+    /**
+     * @return the number of blocks not allocated
+     */
+    public long getFreeBlocks() {
+        return freeBytes / blockSizeBytes;
+    }
+
+    /**
+     * @return the number of allocations turned down for want of enough free blocks in one piece
+     */
+    public long getAllocationFailures() {
+        return allocationFailures;
+    }
+
+    /**
+     * @return the most blocks which can be allocated in one piece; a scan of the allocation bitmap
+     */
+    public long getLargestFreeRun() {
+        return allocated.longestClearRun(getBlockCount());
+    }
+
 
 
 }
\ No newline at end of file
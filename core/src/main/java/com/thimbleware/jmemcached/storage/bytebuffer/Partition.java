@@ -9,10 +9,23 @@ import java.util.*;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * One lock's worth of the block store: the hash buckets which index its keys, and the block store holding their
+ * values.
  */
 public final class Partition {
     private static final int NUM_BUCKETS = 32768;
 
+    /**
+     * Layout of a bucket entry: total size of the rest of the entry, then size, used blocks, start block, expiry,
+     * timestamp, key size and the key itself.
+     */
+    private static final int ENTRY_SIZE_FIELD = 4;
+    private static final int SIZE_OFFSET = 4;
+    private static final int USED_BLOCKS_OFFSET = 8;
+    private static final int EXPIRY_OFFSET = 16;
+    private static final int KEY_SIZE_OFFSET = 32;
+    private static final int KEY_OFFSET = 36;
+
     ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
 
     ChannelBuffer[] buckets = new ChannelBuffer[NUM_BUCKETS];
@@ -88,27 +101,55 @@ public final class Partition {
     public void remove(Key key, Region region) {
         int bucket = findBucketNum(key);
 
-        ChannelBuffer newRegion = ChannelBuffers.dynamicBuffer(128);
-        ChannelBuffer regions = buckets[bucket].slice();
+        ChannelBuffer regions = buckets[bucket];
         if (regions == null) return;
 
-        regions.readerIndex(0);
-        while (regions.readableBytes() > 0) {
-            // read key portion then region portion
-            int pos = regions.readerIndex();
-            int totsize = regions.readInt();
-            regions.skipBytes(28);
-            int rkeySize = regions.readInt();
-            ChannelBuffer rkey = regions.readBytes(rkeySize);
+        int pos = findEntry(regions, key);
+        if (pos == -1) return;
 
-            if (rkeySize != key.bytes.capacity() || !rkey.equals(key.bytes)) {
-                newRegion.writeBytes(regions.slice(pos, regions.readerIndex()));
-            }
-        }
+        // compact the bucket in place rather than copying the surviving entries into a new buffer
+        int end = regions.writerIndex();
+        int entrySize = ENTRY_SIZE_FIELD + regions.getInt(pos);
+        regions.setBytes(pos, regions, pos + entrySize, end - pos - entrySize);
+        regions.writerIndex(end - entrySize);
+        numberItems--;
+    }
+
+    /**
+     * Rewrite a region in place for an element which is the one stored there with bytes appended to its data,
+     * growing the region into the blocks after it if it has to.
+     * @return false if the region couldn't grow far enough, in which case it's left as it was
+     */
+    public boolean append(Key key, Region region, LocalCacheElement e, int appendedBytes) {
+        int bucket = findBucketNum(key);
+        ChannelBuffer regions = buckets[bucket];
+        int pos = regions == null ? -1 : findEntry(regions, key);
+        if (pos == -1) return false;
 
-        buckets[bucket] = newRegion;
+        Region grown = blockStore.extend(region, e.bufferSize());
+        if (grown == null) return false;
+        e.writeAppendToBuffer(grown.slice, appendedBytes);
 
-        numberItems--;
+        regions.setInt(pos + SIZE_OFFSET, grown.size);
+        regions.setInt(pos + USED_BLOCKS_OFFSET, grown.usedBlocks);
+        regions.setLong(pos + EXPIRY_OFFSET, e.getExpire());
+        return true;
+    }
+
+    /**
+     * @return the position of the key's entry in the bucket, or -1 if it isn't there
+     */
+    private int findEntry(ChannelBuffer regions, Key key) {
+        int pos = 0;
+        int end = regions.writerIndex();
+        key.bytes.readerIndex(0);
+        while (pos < end) {
+            int rkeySize = regions.getInt(pos + KEY_SIZE_OFFSET);
+            if (rkeySize == key.bytes.capacity() && key.bytes.equals(regions.slice(pos + KEY_OFFSET, rkeySize)))
+                return pos;
+            pos += ENTRY_SIZE_FIELD + regions.getInt(pos);
+        }
+        return -1;
     }
 
     public Region add(Key key, LocalCacheElement e) {
@@ -116,24 +157,22 @@ public final class Partition {
         e.writeToBuffer(region.slice);
         int bucket = findBucketNum(key);
 
-        ChannelBuffer outbuf = ChannelBuffers.directBuffer(32 + key.bytes.capacity());
-        outbuf.writeInt(region.size);
-        outbuf.writeInt(region.usedBlocks);
-        outbuf.writeInt(region.startBlock);
-        outbuf.writeLong(region.expiry);
-        outbuf.writeLong(region.timestamp);
-        outbuf.writeInt(key.bytes.capacity());
-        key.bytes.readerIndex(0);
-        outbuf.writeBytes(key.bytes);
-
         ChannelBuffer regions = buckets[bucket];
         if (regions == null) {
             regions = ChannelBuffers.dynamicBuffer(128);
             buckets[bucket] = regions;
         }
 
-        regions.writeInt(outbuf.capacity());
-        regions.writeBytes(outbuf);
+        // the entry goes straight into the bucket; no intermediate buffer per add
+        int keySize = key.bytes.capacity();
+        regions.writeInt(KEY_OFFSET - ENTRY_SIZE_FIELD + keySize);
+        regions.writeInt(region.size);
+        regions.writeInt(region.usedBlocks);
+        regions.writeInt(region.startBlock);
+        regions.writeLong(region.expiry);
+        regions.writeLong(region.timestamp);
+        regions.writeInt(keySize);
+        regions.writeBytes(key.bytes, 0, keySize);
 
         numberItems++;
 
@@ -173,4 +212,82 @@ public final class Partition {
     public int getNumberItems() {
         return numberItems;
     }
+
+    /**
+     * @return the size of the partition's block store in bytes
+     */
+    public long getStoreSizeBytes() {
+        return blockStore.getStoreSizeBytes();
+    }
+
+    public int getBlockSizeBytes() {
+        return blockStore.getBlockSizeBytes();
+    }
+
+    /**
+     * @return the number of blocks in the partition's block store
+     */
+    public long getBlockCount() {
+        return blockStore.getBlockCount();
+    }
+
+    /**
+     * @return the number of blocks free in the partition's block store
+     */
+    public long getFreeBlocks() {
+        storageLock.readLock().lock();
+        try {
+            return blockStore.getFreeBlocks();
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of stores turned down for want of room
+     */
+    public long getAllocationFailures() {
+        storageLock.readLock().lock();
+        try {
+            return blockStore.getAllocationFailures();
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of hash buckets holding at least one key
+     */
+    public int getUsedBuckets() {
+        storageLock.readLock().lock();
+        try {
+            int used = 0;
+            for (ChannelBuffer bucket : buckets) {
+                if (bucket != null && bucket.writerIndex() > 0) used++;
+            }
+            return used;
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of keys a lookup has to look through, on average, in a bucket holding any; 0 if empty
+     */
+    public double getAverageChainLength() {
+        int used = getUsedBuckets();
+        return used == 0 ? 0 : (double) numberItems / used;
+    }
+
+    /**
+     * @return the largest value the partition can take, in blocks
+     */
+    public long getLargestFreeRun() {
+        storageLock.readLock().lock();
+        try {
+            return blockStore.getLargestFreeRun();
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
 }
@@ -77,6 +77,7 @@ public final class ConcurrentLinkedHashMap<K, V extends SizedItem> extends Abstr
     final Lock lock;
     final AtomicLong memoryCapacity;
     final AtomicLong memoryUsed;
+    final AtomicLong evictions = new AtomicLong();
 
     /**
      * Creates a map with the specified eviction policy, maximum capacity, and at the default concurrency level.
@@ -172,6 +173,10 @@ public final class ConcurrentLinkedHashMap<K, V extends SizedItem> extends Abstr
         return memoryUsed.get();
     }
 
+    public long getEvictions() {
+        return evictions.get();
+    }
+
     /**
      * Sets the maximum capacity of the map and eagerly evicts entries until it shrinks to the appropriate size.
      *
@@ -266,6 +271,7 @@ public final class ConcurrentLinkedHashMap<K, V extends SizedItem> extends Abstr
                     memoryUsed.addAndGet(-1 * node.getValue().size());
 
                     node.remove();
+                    evictions.incrementAndGet();
                     listener.onEviction(node.getKey(), node.getValue());
                     return true;
                 }
@@ -287,6 +293,16 @@ public final class ConcurrentLinkedHashMap<K, V extends SizedItem> extends Abstr
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void getMulti(K[] keys, V[] values) {
+        // the backing map is lock-striped internally, so there is nothing to gain by grouping
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = get(keys[i]);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -407,6 +423,29 @@ public final class ConcurrentLinkedHashMap<K, V extends SizedItem> extends Abstr
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Updates of the same key queue on its node's monitor, rather than spinning on a compare-and-set against each
+     * other; the compare-and-set only fails, and the update is retried, if a plain put or replace got in first.
+     */
+    public V computeIfPresent(K key, ValueUpdate<V> update) {
+        Node<K, V> node = data.get(key);
+        if (node == null) return null;
+
+        synchronized (node) {
+            for (;;) {
+                V current = node.getValue();
+                V next = update.apply(current);
+                if (next == null) return null;
+                if (node.casValue(current, next)) {
+                    memoryUsed.addAndGet(next.size() - current.size());
+                    return next;
+                }
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -13,6 +13,10 @@ public class BufferUtils {
             99999999, 999999999, Integer.MAX_VALUE };
     private static final ChannelBuffer LONG_MIN_VALUE_BYTES = ChannelBuffers.wrappedBuffer("-9223372036854775808".getBytes());
 
+    // (2^64 - 1) / 10 and (2^64 - 1) % 10
+    private static final long UNSIGNED_LONG_MAX_DIV_10 = 1844674407370955161L;
+    private static final int UNSIGNED_LONG_MAX_MOD_10 = 5;
+
     // Requires positive x
     static int stringSize(int x) {
         for (int i=0; ; i++)
@@ -146,6 +150,32 @@ public class BufferUtils {
         return negative ? result : -result;
     }
 
+    /**
+     * Parse an unsigned 64 bit decimal, as memcached's counters are. Values above Long.MAX_VALUE come back negative,
+     * in two's complement.
+     * @param s the digits, from index 0 to the buffer's capacity
+     * @return the value
+     * @throws NumberFormatException if s isn't all digits or is more than 2^64 - 1
+     */
+    public static long atoul(ChannelBuffer s)
+            throws NumberFormatException
+    {
+        int len = s.capacity();
+        if (len == 0 || len > 20) throw new NumberFormatException();
+
+        long result = 0;
+        for (int i = 0; i < len; i++) {
+            int digit = s.getByte(i) - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException();
+            // result * 10 + digit must not pass 2^64 - 1, compared unsigned
+            if (Long.MIN_VALUE + result > Long.MIN_VALUE + UNSIGNED_LONG_MAX_DIV_10 ||
+                    (result == UNSIGNED_LONG_MAX_DIV_10 && digit > UNSIGNED_LONG_MAX_MOD_10))
+                throw new NumberFormatException();
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
     /** Blatant copy of Integer.toString, but returning a byte array instead of a String, as
      *  string charset decoding/encoding was killing us on performance.
      * @param i integer to convert
@@ -155,6 +185,7 @@ public class BufferUtils {
         int size = (i < 0) ? stringSize(-i) + 1 : stringSize(i);
         ChannelBuffer buf = ChannelBuffers.buffer(size);
         getChars(i, size, buf);
+        buf.writerIndex(size);
         return buf;
     }
 
@@ -165,9 +196,91 @@ public class BufferUtils {
         int size = (i < 0) ? stringSize(-i) + 1 : stringSize(i);
         ChannelBuffer buf = ChannelBuffers.buffer(size);
         getChars(i, size, buf);
+        buf.writerIndex(size);
         return buf;
     }
 
+    /**
+     * @param i the value, read as unsigned 64 bits
+     * @return buffer holding its ASCII representation
+     */
+    public static ChannelBuffer ultoa(long i) {
+        if (i >= 0) return ltoa(i);
+        ChannelBuffer buf = ChannelBuffers.buffer(stringSize((i >>> 1) / 5) + 1);
+        writeUnsignedLong(buf, i);
+        return buf;
+    }
+
+    /**
+     * Write the ASCII representation of i at the buffer's writer index, without allocating.
+     * @param buf the buffer to write to; grown if it is dynamic
+     * @param i the integer to write
+     */
+    public static void writeInt(ChannelBuffer buf, int i) {
+        if (i == Integer.MIN_VALUE) {
+            writeLong(buf, i);
+            return;
+        }
+        int size = (i < 0) ? stringSize(-i) + 1 : stringSize(i);
+        buf.ensureWritableBytes(size);
+        int end = buf.writerIndex() + size;
+        getChars(i, end, buf);
+        buf.writerIndex(end);
+    }
+
+    /**
+     * Write the ASCII representation of i at the buffer's writer index, without allocating.
+     * @param buf the buffer to write to; grown if it is dynamic
+     * @param i the long to write
+     */
+    public static void writeLong(ChannelBuffer buf, long i) {
+        if (i == Long.MIN_VALUE) {
+            buf.writeBytes(LONG_MIN_VALUE_BYTES, 0, LONG_MIN_VALUE_BYTES.capacity());
+            return;
+        }
+        int size = (i < 0) ? stringSize(-i) + 1 : stringSize(i);
+        buf.ensureWritableBytes(size);
+        int end = buf.writerIndex() + size;
+        getChars(i, end, buf);
+        buf.writerIndex(end);
+    }
+
+    /**
+     * @return the number of bytes writeLong writes for i
+     */
+    public static int longSize(long i) {
+        if (i == Long.MIN_VALUE) return LONG_MIN_VALUE_BYTES.capacity();
+        return (i < 0) ? stringSize(-i) + 1 : stringSize(i);
+    }
+
+    /**
+     * Write a string of ASCII characters at the buffer's writer index, without encoding it to an array first.
+     * @param buf the buffer to write to; grown if it is dynamic
+     * @param s the string, which must be ASCII
+     */
+    public static void writeAscii(ChannelBuffer buf, String s) {
+        int length = s.length();
+        buf.ensureWritableBytes(length);
+        for (int i = 0; i < length; i++) buf.writeByte(s.charAt(i));
+    }
+
+    /**
+     * Write the ASCII representation of i, read as unsigned 64 bits, at the buffer's writer index.
+     * @param buf the buffer to write to; grown if it is dynamic
+     * @param i the value to write
+     */
+    public static void writeUnsignedLong(ChannelBuffer buf, long i) {
+        if (i >= 0) {
+            writeLong(buf, i);
+            return;
+        }
+        // halving first brings it into signed range; the last digit is what's left over
+        long quotient = (i >>> 1) / 5;
+        writeLong(buf, quotient);
+        buf.ensureWritableBytes(1);
+        buf.writeByte('0' + (int) (i - quotient * 10));
+    }
+
     /**
      * Places characters representing the integer i into the
      * character array buf. The characters are placed into
@@ -222,7 +335,6 @@ public class BufferUtils {
         if (sign != 0) {
             buf.setByte(--charPos, sign);
         }
-        buf.writerIndex(buf.capacity());
     }
 
     static void getChars(int i, int index, ChannelBuffer buf) {
@@ -257,7 +369,6 @@ public class BufferUtils {
         if (sign != 0) {
             buf.setByte(--charPos, sign);
         }
-        buf.writerIndex(buf.capacity());
     }
 
     // Requires positive x
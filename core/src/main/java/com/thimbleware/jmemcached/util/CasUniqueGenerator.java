@@ -0,0 +1,41 @@
+package com.thimbleware.jmemcached.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out cas unique values without every writer contending on one counter.
+ * <p/>
+ * Keys are spread over a number of stripes by hash, and each stripe counts on its own. A value is its stripe's
+ * count with the stripe number in the high bits (below the sign bit, so values print as positive numbers), which
+ * keeps values unique across stripes. A key always lands on the same stripe, so the values handed out for it keep
+ * increasing, as they did with a single counter.
+ */
+public final class CasUniqueGenerator {
+
+    private final int stripeMask;
+    private final int countBits;
+    private final AtomicLongArray counts;
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two
+     */
+    public CasUniqueGenerator(int stripes) {
+        stripes = Stripes.ceilingPowerOfTwo(stripes);
+
+        this.stripeMask = stripes - 1;
+        this.countBits = 63 - Integer.numberOfTrailingZeros(stripes);
+        this.counts = new AtomicLongArray(Stripes.length(stripes));
+    }
+
+    /**
+     * @param key the key the value is for
+     * @return a cas unique never handed out before, and greater than any handed out before for the same key
+     */
+    public long next(Object key) {
+        int h = key.hashCode();
+        int stripe = (h ^ (h >>> 16)) & stripeMask;
+        // counts start at 1, so no value is ever 0, which the binary protocol takes to mean "no cas"
+        long count = counts.incrementAndGet(Stripes.cell(stripe));
+        return ((long) stripe << countBits) | count;
+    }
+}
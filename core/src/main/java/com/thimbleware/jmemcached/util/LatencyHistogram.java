@@ -0,0 +1,113 @@
+package com.thimbleware.jmemcached.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations, for latency percentiles.
+ * <p/>
+ * Buckets are laid out as in HdrHistogram: each power of two range of values is split into 16 equal sub-buckets,
+ * so a recorded value is known to within 1/16th (about 6%) whatever its magnitude, and every value a long can
+ * hold fits in under a thousand buckets. Recording is one atomic add, plus a compare-and-set on the rare occasion
+ * it's a new maximum. Reading walks the buckets; it isn't an atomic snapshot of concurrent recording, which is
+ * fine for statistics.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value the duration to record; negative values (from a clock going backwards) are taken as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) current = max.get();
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the largest value which lands in the bucket
+     */
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * @return the largest value recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value at or below which that percentage of recorded values fall, to within the bucket width;
+     * 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highestValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * @return the count, median, 99th and 99.9th percentiles and maximum, taking the values as nanoseconds and
+     * giving them in microseconds to one decimal place
+     */
+    public String summary() {
+        return "count=" + getCount()
+                + " p50=" + micros(getValueAtPercentile(50))
+                + " p99=" + micros(getValueAtPercentile(99))
+                + " p999=" + micros(getValueAtPercentile(99.9))
+                + " max=" + micros(getMax());
+    }
+
+    private static String micros(long nanos) {
+        return nanos / 1000 + "." + nanos % 1000 / 100;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        max.set(0);
+    }
+}
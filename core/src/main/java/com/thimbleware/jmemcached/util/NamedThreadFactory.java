@@ -0,0 +1,30 @@
+package com.thimbleware.jmemcached.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory producing threads named after their pool ("jmemcached-worker-3", etc.) so they can be told
+ * apart in thread dumps and profilers.
+ */
+public final class NamedThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final boolean daemon;
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    /**
+     * @param name the pool name, used as the thread name prefix
+     * @param daemon whether the threads should be daemon threads
+     */
+    public NamedThreadFactory(String name, boolean daemon) {
+        this.prefix = name + "-";
+        this.daemon = daemon;
+    }
+
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + threadNumber.getAndIncrement());
+        thread.setDaemon(daemon);
+        return thread;
+    }
+}
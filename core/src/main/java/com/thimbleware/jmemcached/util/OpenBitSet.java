@@ -669,7 +669,7 @@ public class OpenBitSet implements Cloneable, Serializable {
             starting_block = b;
 
             for (count = 0; count < blocks_needed; count++) {
-                if ((bits[b >>> OFFSET] & (1 << (b & 0x3f))) != 0)
+                if ((bits[b >>> OFFSET] & (1L << (b & 0x3f))) != 0)
                     break;
                 b++;
                 if (b >= wdth) {
@@ -685,7 +685,7 @@ public class OpenBitSet implements Cloneable, Serializable {
             }
 
             if (count == blocks_needed) {
-                set(starting_block, b+blocks_needed);
+                set(starting_block, starting_block + blocks_needed);
                 return starting_block;
             }
 
@@ -697,6 +697,36 @@ public class OpenBitSet implements Cloneable, Serializable {
 
 
 
+    /** Returns the length of the longest run of clear bits below numBits.
+     * Whole words are skipped at a time, so this is cheap on a set which is mostly full or mostly empty.
+     */
+    public long longestClearRun(long numBits) {
+        long longest = 0;
+        long run = 0;
+        int words = bits2words(numBits);
+        for (int i = 0; i < words; i++) {
+            // words past wlen have never been set, so they're clear
+            long word = i < wlen ? bits[i] : 0;
+            int width = (int) Math.min(ELM_SIZE, numBits - ((long) i << OFFSET));
+            if (word == 0) {
+                run += width;
+            } else if (word == ALLSET) {
+                longest = Math.max(longest, run);
+                run = 0;
+            } else {
+                for (int b = 0; b < width; b++) {
+                    if ((word & (1L << b)) == 0) {
+                        run++;
+                    } else {
+                        longest = Math.max(longest, run);
+                        run = 0;
+                    }
+                }
+            }
+        }
+        return Math.max(longest, run);
+    }
+
     /** Returns the index of the first set bit starting at the index specified.
      *  -1 is returned if there are no more set bits.
      */
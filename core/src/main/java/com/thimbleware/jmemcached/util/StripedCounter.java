@@ -0,0 +1,32 @@
+package com.thimbleware.jmemcached.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A statistics counter which many threads can bump at once without contending on one cache line.
+ * <p/>
+ * Each thread adds to one of a number of cells, picked by its thread id, and reading the counter sums the cells.
+ * Adding is as cheap as an uncontended atomic add; reading costs a pass over the cells, and isn't an atomic
+ * snapshot of concurrent adds, which is fine for statistics.
+ */
+public final class StripedCounter {
+
+    private final AtomicLongArray cells = new AtomicLongArray(Stripes.length(Stripes.FOR_THREADS));
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        cells.addAndGet(Stripes.cell(Stripes.forThread(Stripes.FOR_THREADS)), delta);
+    }
+
+    /**
+     * @return the sum of everything added so far
+     */
+    public long get() {
+        long sum = 0;
+        for (int stripe = 0; stripe < Stripes.FOR_THREADS; stripe++) sum += cells.get(Stripes.cell(stripe));
+        return sum;
+    }
+}
@@ -0,0 +1,54 @@
+package com.thimbleware.jmemcached.util;
+
+/**
+ * Sizing and indexing for counters striped over threads or keys, so that concurrent writers don't all contend on
+ * one cache line.
+ * <p/>
+ * Stripes are laid out in a plain array, PADDING elements apart, so each sits on its own cache line for ints and
+ * its own pair of lines for longs; the array is length(stripes) long and stripe i is at cell(i).
+ */
+public final class Stripes {
+
+    public static final int PADDING = 16;
+
+    /**
+     * Enough stripes for threads to rarely share one: the power of two at or above twice the number of processors.
+     */
+    public static final int FOR_THREADS = ceilingPowerOfTwo(2 * Runtime.getRuntime().availableProcessors());
+
+    private Stripes() {
+    }
+
+    /**
+     * @return the smallest power of two not less than n
+     */
+    public static int ceilingPowerOfTwo(int n) {
+        int stripes = 1;
+        while (stripes < n) stripes <<= 1;
+        return stripes;
+    }
+
+    /**
+     * @param stripes the number of stripes, a power of two
+     * @return the length of the array holding them
+     */
+    public static int length(int stripes) {
+        return stripes * PADDING;
+    }
+
+    /**
+     * @return the array index of the stripe
+     */
+    public static int cell(int stripe) {
+        return stripe * PADDING;
+    }
+
+    /**
+     * @param stripes the number of stripes, a power of two
+     * @return the stripe for the calling thread, picked by its id
+     */
+    public static int forThread(int stripes) {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) & (stripes - 1);
+    }
+}
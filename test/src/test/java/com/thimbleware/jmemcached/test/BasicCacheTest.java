@@ -4,6 +4,7 @@ import static com.thimbleware.jmemcached.LocalCacheElement.Now;
 import com.thimbleware.jmemcached.*;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -13,6 +14,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  */
@@ -207,13 +209,70 @@ public class BasicCacheTest extends AbstractCacheTest {
         assertEquals(cache.set(element), Cache.StoreResponse.STORED);
 
         // increment
-        assertEquals("value correctly incremented", (Integer)2, cache.get_add(testKey, 1));
+        assertEquals("value correctly incremented", (Long)2L, cache.get_add(testKey, 1));
 
         // increment by more
-        assertEquals("value correctly incremented", (Integer)7, cache.get_add(testKey, 5));
+        assertEquals("value correctly incremented", (Long)7L, cache.get_add(testKey, 5));
 
         // decrement
-        assertEquals("value correctly decremented", (Integer)2, cache.get_add(testKey, -5));
+        assertEquals("value correctly decremented", (Long)2L, cache.get_add(testKey, -5));
+    }
+
+    @Test
+    public void testIncrementDecrementUnsigned64Bit() {
+        Key testKey = new Key(ChannelBuffers.wrappedBuffer("12345678".getBytes()));
+
+        LocalCacheElement element = new LocalCacheElement(testKey, 0, NO_EXPIRE, 0L);
+        element.setData(ChannelBuffers.wrappedBuffer("18446744073709551614".getBytes()));
+        assertEquals(cache.set(element), Cache.StoreResponse.STORED);
+
+        // up to 2^64 - 1, then round to 0
+        assertEquals("value correctly incremented", (Long)(-1L), cache.get_add(testKey, 1));
+        assertEquals("value wrapped around", (Long)0L, cache.get_add(testKey, 1));
+
+        // decrements stop at 0
+        assertEquals("value correctly incremented", (Long)5L, cache.get_add(testKey, 5));
+        assertEquals("value stopped at 0", (Long)0L, cache.get_add(testKey, -10));
+        assertEquals("0", cache.get(testKey)[0].getData().toString(Charset.forName("US-ASCII")));
+    }
+
+    @Test
+    public void testConcurrentIncrement() throws InterruptedException {
+        final Key testKey = new Key(ChannelBuffers.wrappedBuffer("12345678".getBytes()));
+
+        LocalCacheElement element = new LocalCacheElement(testKey, 0, NO_EXPIRE, 0L);
+        element.setData(ChannelBuffers.wrappedBuffer("0".getBytes()));
+        assertEquals(cache.set(element), Cache.StoreResponse.STORED);
+
+        // no increment may be lost or fail under contention
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        if (cache.get_add(testKey, 1) == null) throw new AssertionError("increment failed");
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals((Long)8001L, cache.get_add(testKey, 1));
+    }
+
+    @Test
+    public void testIncrementCreatesOnMiss() {
+        Key testKey = new Key(ChannelBuffers.wrappedBuffer("12345678".getBytes()));
+
+        // without a vivify expiry a miss stays a miss
+        assertNull(cache.get_add(testKey, 1, -1, -1, 10));
+
+        // the initial value is stored as is, and only later calls add to it
+        assertEquals((Long)10L, cache.get_add(testKey, 1, -1, NO_EXPIRE, 10));
+        assertEquals((Long)11L, cache.get_add(testKey, 1, -1, NO_EXPIRE, 10));
+        assertEquals((Long)6L, cache.get_add(testKey, -5, -1, NO_EXPIRE, 10));
+        assertEquals(1, cache.getCurrentItems());
     }
 
 
@@ -240,4 +299,63 @@ public class BasicCacheTest extends AbstractCacheTest {
         assertEquals(ChannelBuffers.wrappedBuffer("11".getBytes()), data);
     }
 
+    @Test
+    public void testRepeatedAppendPrepend() {
+        Key testKey = new Key(ChannelBuffers.wrappedBuffer("12345678".getBytes()));
+
+        LocalCacheElement element = new LocalCacheElement(testKey, 0, NO_EXPIRE, 0L);
+        element.setData(ChannelBuffers.wrappedBuffer("|".getBytes()));
+        assertEquals(cache.set(element), Cache.StoreResponse.STORED);
+
+        // enough pieces that the heap store has to compact, and the block store has to grow the region
+        StringBuilder expected = new StringBuilder("|");
+        for (int i = 0; i < 300; i++) {
+            String piece = Integer.toString(i);
+            LocalCacheElement pieceEl = new LocalCacheElement(testKey, 0, NO_EXPIRE, 0L);
+            pieceEl.setData(ChannelBuffers.wrappedBuffer(piece.getBytes()));
+            if (i % 3 == 0) {
+                assertEquals(Cache.StoreResponse.STORED, cache.prepend(pieceEl));
+                expected.insert(0, piece);
+            } else {
+                assertEquals(Cache.StoreResponse.STORED, cache.append(pieceEl));
+                expected.append(piece);
+            }
+        }
+
+        LocalCacheElement[] elements = cache.get(testKey);
+        assertEquals(ChannelBuffers.wrappedBuffer(expected.toString().getBytes()), elements[0].getData());
+        assertEquals(1, cache.getCurrentItems());
+    }
+
+    @Test
+    public void testMultiGet() {
+        int numKeys = 200;
+        Key[] keys = new Key[numKeys];
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = new Key(ChannelBuffers.wrappedBuffer(("key" + i).getBytes()));
+
+            // only store every other key, so that the batch mixes hits and misses
+            if (i % 2 == 0) {
+                LocalCacheElement element = new LocalCacheElement(keys[i], 0, NO_EXPIRE, 0L);
+                element.setData(ChannelBuffers.wrappedBuffer(("value" + i).getBytes()));
+                assertEquals(cache.set(element), Cache.StoreResponse.STORED);
+            }
+        }
+
+        LocalCacheElement[] results = cache.get(keys);
+        assertEquals("one result per key", numKeys, results.length);
+        for (int i = 0; i < numKeys; i++) {
+            if (i % 2 == 0) {
+                assertNotNull(i + "th result should be present", results[i]);
+                assertEquals("key matches position", keys[i], results[i].getKey());
+                assertEquals("data matches", ChannelBuffers.wrappedBuffer(("value" + i).getBytes()), results[i].getData());
+            } else {
+                assertTrue(i + "th result absence", results[i] == null);
+            }
+        }
+
+        assertEquals("hits", numKeys / 2, cache.getGetHits());
+        assertEquals("misses", numKeys / 2, cache.getGetMisses());
+    }
+
 }
@@ -0,0 +1,89 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.Stats;
+import com.thimbleware.jmemcached.storage.bytebuffer.BlockStorageCacheStorage;
+import com.thimbleware.jmemcached.storage.bytebuffer.ByteBufferBlockStore;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the per partition breakdown of the block store behind "stats slabs" and "stats items".
+ */
+public class BlockStoreStatsTest {
+
+    private static final int PARTITIONS = 2;
+    private static final int BLOCK_SIZE = 8;
+    private static final int PARTITION_BYTES = 4096;
+
+    private static LocalCacheElement element(String key, int size) {
+        LocalCacheElement element = new LocalCacheElement(new Key(ChannelBuffers.wrappedBuffer(key.getBytes())), 0, 0, 0L);
+        element.setData(ChannelBuffers.wrappedBuffer(new byte[size]));
+        return element;
+    }
+
+    private static String stat(Stats stats, String name) {
+        return stats.get(name);
+    }
+
+    @Test
+    public void testSlabsAndItems() {
+        CacheImpl cache = new CacheImpl(new BlockStorageCacheStorage(PARTITIONS, PARTITION_BYTES, BLOCK_SIZE,
+                PARTITIONS * PARTITION_BYTES, 1000, new ByteBufferBlockStore.ByteBufferBlockStoreFactory()));
+
+        int stored = 0;
+        int failures = 0;
+        for (int i = 0; i < 200; i++) {
+            try {
+                cache.set(element("key" + i, 100));
+                stored++;
+            } catch (ByteBufferBlockStore.BadAllocationException e) {
+                failures++;
+            }
+        }
+        assertTrue(failures > 0);
+
+        Stats slabs = cache.stat("slabs");
+        assertEquals("0:chunk_size", slabs.getName(0));
+        assertEquals(String.valueOf(PARTITIONS), stat(slabs, "active_slabs"));
+        long allocFailures = 0;
+        for (int i = 0; i < PARTITIONS; i++) {
+            assertEquals(String.valueOf(BLOCK_SIZE), stat(slabs, i + ":chunk_size"));
+            long total = Long.parseLong(stat(slabs, i + ":total_chunks"));
+            long used = Long.parseLong(stat(slabs, i + ":used_chunks"));
+            long free = Long.parseLong(stat(slabs, i + ":free_chunks"));
+            assertEquals(PARTITION_BYTES / BLOCK_SIZE, total);
+            assertEquals(total, used + free);
+            assertTrue(Long.parseLong(stat(slabs, i + ":largest_free_run")) <= free);
+            allocFailures += Long.parseLong(stat(slabs, i + ":alloc_failures"));
+        }
+        assertEquals(failures, allocFailures);
+
+        Stats items = cache.stat("items");
+        int number = 0;
+        for (int i = 0; i < PARTITIONS; i++) {
+            number += Integer.parseInt(stat(items, "items:" + i + ":number"));
+            assertTrue(Double.parseDouble(stat(items, "items:" + i + ":avg_chain_length")) >= 1);
+        }
+        assertEquals(stored, number);
+
+        // freeing every other value leaves the free space in pieces
+        for (int i = 0; i < 200; i += 2) cache.delete(new Key(ChannelBuffers.wrappedBuffer(("key" + i).getBytes())), 0);
+        slabs = cache.stat("slabs");
+        assertTrue(Double.parseDouble(stat(slabs, "0:fragmentation")) > 0);
+    }
+
+    @Test
+    public void testNothingForHashStorage() {
+        CacheImpl cache = new CacheImpl(ConcurrentLinkedHashMap.<Key, LocalCacheElement>create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024));
+        assertTrue(cache.stat("slabs").isEmpty());
+        assertTrue(cache.stat("").size() > 0);
+    }
+}
@@ -0,0 +1,91 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.Cache;
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import com.thimbleware.jmemcached.util.CasUniqueGenerator;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times handing out cas uniques, and sets, from several threads: against a single shared counter, and against the
+ * per key stripes of {@link CasUniqueGenerator}.
+ * <p/>
+ * Not part of the test run, since it only reports timings; run its main method from the test classpath.
+ */
+public class CasUniqueBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 200000;
+
+    private static Key key(String name) {
+        return new Key(ChannelBuffers.wrappedBuffer(name.getBytes()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        final AtomicLong single = new AtomicLong();
+        final CasUniqueGenerator striped = new CasUniqueGenerator(4 * Runtime.getRuntime().availableProcessors());
+        final Key[] keys = new Key[1024];
+        for (int i = 0; i < keys.length; i++) keys[i] = key("key" + i);
+
+        report("single counter", time(new Work() {
+            public void run(int thread, int i) {
+                single.getAndIncrement();
+            }
+        }));
+        report("striped counter", time(new Work() {
+            public void run(int thread, int i) {
+                striped.next(keys[(thread * 31 + i) & (keys.length - 1)]);
+            }
+        }));
+
+        final Cache<LocalCacheElement> cache = new CacheImpl(ConcurrentLinkedHashMap.<Key, LocalCacheElement>create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 100000, 64 * 1024 * 1024));
+        report("cache set", time(new Work() {
+            public void run(int thread, int i) {
+                LocalCacheElement element = new LocalCacheElement(keys[(thread * 31 + i) & (keys.length - 1)], 0, 0, 0L);
+                element.setData(ChannelBuffers.EMPTY_BUFFER);
+                cache.set(element);
+            }
+        }));
+        cache.close();
+    }
+
+    private interface Work {
+        void run(int thread, int i);
+    }
+
+    private static long time(final Work work) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < PER_THREAD; i++) work.run(thread, i);
+                }
+            };
+            threads[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        return System.nanoTime() - begin;
+    }
+
+    private static void report(String what, long nanos) {
+        long ops = (long) THREADS * PER_THREAD;
+        System.out.println(what + " from " + THREADS + " threads: " + ops + " ops in " + (nanos / 1000000) + "ms, "
+                + (ops * 1000 / Math.max(1, nanos / 1000)) + " ops/ms");
+    }
+}
@@ -0,0 +1,56 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.util.CasUniqueGenerator;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks cas uniques stay unique, and keep increasing per key, when handed out from several threads.
+ */
+public class CasUniqueTest {
+
+    private static final int THREADS = 8;
+
+    private static Key key(String name) {
+        return new Key(ChannelBuffers.wrappedBuffer(name.getBytes()));
+    }
+
+    @Test
+    public void testUniqueAndIncreasingPerKey() throws InterruptedException {
+        final CasUniqueGenerator generator = new CasUniqueGenerator(16);
+        final ConcurrentHashMap<Long, Boolean> seen = new ConcurrentHashMap<Long, Boolean>();
+        final Key shared = key("shared");
+        final AtomicLong failures = new AtomicLong();
+
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    long last = 0;
+                    for (int i = 0; i < 10000; i++) {
+                        seen.put(generator.next(key("key" + thread + "-" + i)), Boolean.TRUE);
+
+                        // one thread's view of one key's values has to keep going up
+                        long next = generator.next(shared);
+                        if (next <= last || seen.put(next, Boolean.TRUE) != null) failures.incrementAndGet();
+                        last = next;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(0, failures.get());
+        assertEquals(THREADS * 10000 * 2, seen.size());
+        for (Long value : seen.keySet()) assertTrue(value > 0);
+    }
+}
@@ -0,0 +1,82 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Times how long a short lived connection takes from connect to its first response, as clients which connect per
+ * request see it, for both protocols on an auto detecting port.
+ * <p/>
+ * Not part of the test run, since it only reports timings; run its main method from the test classpath.
+ */
+public class ConnectionChurnBenchmark {
+
+    private static final int CONNECTIONS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        InetSocketAddress address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024);
+
+        MemCacheDaemon<LocalCacheElement> daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(address);
+        daemon.setAutoDetectProtocol(true);
+        daemon.start();
+        try {
+            byte[] binary = new byte[24];
+            binary[0] = (byte) 0x80; // magic
+            binary[1] = 0x0B; // version
+
+            report("text", time(address, "version\r\n".getBytes("US-ASCII"), false));
+            report("binary", time(address, binary, true));
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    private static long[] time(InetSocketAddress address, byte[] request, boolean binary) throws IOException {
+        long[] nanos = new long[CONNECTIONS];
+        for (int i = 0; i < CONNECTIONS; i++) {
+            long start = System.nanoTime();
+            Socket socket = new Socket(address.getHostName(), address.getPort());
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(request);
+            out.flush();
+            if (binary) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                byte[] header = new byte[24];
+                in.readFully(header);
+                int bodyLength = ((header[8] & 0xff) << 24) | ((header[9] & 0xff) << 16) | ((header[10] & 0xff) << 8) | (header[11] & 0xff);
+                in.readFully(new byte[bodyLength]);
+            } else {
+                InputStream in = socket.getInputStream();
+                while (in.read() != '\n') ;
+            }
+            nanos[i] = System.nanoTime() - start;
+            socket.close();
+        }
+        return nanos;
+    }
+
+    private static void report(String protocol, long[] nanos) {
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long n : nanos) total += n;
+        System.out.println(protocol + " connect to first response over " + nanos.length + " connections: mean "
+                + (total / nanos.length / 1000) + "us, median " + (nanos[nanos.length / 2] / 1000)
+                + "us, 99th percentile " + (nanos[nanos.length * 99 / 100] / 1000) + "us");
+    }
+}
@@ -0,0 +1,120 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks connections are set up independently of each other, and that a run of short lived connections are each
+ * answered.
+ */
+public class ConnectionChurnTest {
+
+    private static final int CONNECTIONS = 2000;
+
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private InetSocketAddress address;
+
+    @Before
+    public void setUp() throws IOException {
+        address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024);
+
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(address);
+        daemon.setAutoDetectProtocol(true);
+        daemon.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        daemon.stop();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(address.getHostName(), address.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static byte[] binaryVersionRequest() {
+        byte[] request = new byte[24];
+        request[0] = (byte) 0x80;
+        request[1] = 0x0B;
+        return request;
+    }
+
+    @Test
+    public void testBinaryConnectionsDecodeIndependently() throws IOException {
+        Socket first = connect();
+        Socket second = connect();
+        byte[] request = binaryVersionRequest();
+
+        // the first connection's request arrives in two parts, with the second's whole request in between
+        first.getOutputStream().write(request, 0, 10);
+        first.getOutputStream().flush();
+        second.getOutputStream().write(request);
+        second.getOutputStream().flush();
+        assertVersionResponse(second);
+
+        first.getOutputStream().write(request, 10, request.length - 10);
+        first.getOutputStream().flush();
+        assertVersionResponse(first);
+
+        first.close();
+        second.close();
+    }
+
+    private static void assertVersionResponse(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] header = new byte[24];
+        in.readFully(header);
+        assertEquals((byte) 0x81, header[0]);
+        assertEquals(0x0B, header[1]);
+        int bodyLength = ((header[8] & 0xff) << 24) | ((header[9] & 0xff) << 16) | ((header[10] & 0xff) << 8) | (header[11] & 0xff);
+        in.readFully(new byte[bodyLength]);
+    }
+
+    @Test
+    public void testShortLivedConnections() throws IOException {
+        churn("version\r\n".getBytes("US-ASCII"), false);
+        churn(binaryVersionRequest(), true);
+    }
+
+    /**
+     * Open a connection per request, as clients which connect per request do, and check each gets its response.
+     */
+    private void churn(byte[] request, boolean binary) throws IOException {
+        for (int i = 0; i < CONNECTIONS; i++) {
+            Socket socket = connect();
+            OutputStream out = socket.getOutputStream();
+            out.write(request);
+            out.flush();
+            if (binary) {
+                assertVersionResponse(socket);
+            } else {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                assertTrue(in.readLine().startsWith("VERSION "));
+            }
+            socket.close();
+        }
+    }
+}
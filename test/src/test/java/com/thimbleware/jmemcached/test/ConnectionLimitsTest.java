@@ -0,0 +1,122 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the limits the daemon puts on individual connections.
+ */
+public class ConnectionLimitsTest {
+
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private InetSocketAddress address;
+
+    @Before
+    public void setUp() throws IOException {
+        address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024);
+
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(address);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        daemon.stop();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(address.getHostName(), address.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(text.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    @Test
+    public void testOversizedResponseBacklogDisconnects() throws IOException {
+        daemon.setMaxPendingWriteBytes(1024);
+        daemon.start();
+
+        Socket socket = connect();
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 4096; i++) value.append('x');
+        send(socket, "set small 0 0 1\r\nx\r\nset big 0 0 4096\r\n" + value + "\r\n");
+        assertEquals("STORED", in.readLine());
+        assertEquals("STORED", in.readLine());
+
+        // responses under the limit go out as normal
+        send(socket, "get small\r\n");
+        assertEquals("VALUE small 0 1", in.readLine());
+        assertEquals("x", in.readLine());
+        assertEquals("END", in.readLine());
+
+        // one over it gets the connection dropped
+        send(socket, "get big\r\n");
+        assertNull(in.readLine());
+        socket.close();
+    }
+
+    @Test
+    public void testIdleConnectionIsClosed() throws IOException {
+        daemon.setIdleTime(1);
+        daemon.start();
+
+        Socket socket = connect();
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        send(socket, "version\r\n");
+        assertTrue(in.readLine().startsWith("VERSION "));
+
+        // nothing more is sent, so the daemon hangs up after a second or so
+        long start = System.currentTimeMillis();
+        assertNull(in.readLine());
+        assertTrue(System.currentTimeMillis() - start < 4000);
+        socket.close();
+    }
+
+    @Test
+    public void testConnectionsOverLimitAreRejected() throws IOException {
+        daemon.setMaxConnections(1);
+        daemon.start();
+
+        Socket first = connect();
+        BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream(), "US-ASCII"));
+        send(first, "version\r\n");
+        assertTrue(firstIn.readLine().startsWith("VERSION "));
+
+        Socket second = connect();
+        assertEquals(-1, second.getInputStream().read());
+        second.close();
+        assertEquals(1, daemon.getRejectedConnections());
+
+        // the first is unaffected
+        send(first, "version\r\n");
+        assertTrue(firstIn.readLine().startsWith("VERSION "));
+        first.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.HotKeyTracker;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.Stats;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the hot key tracker picks the most requested keys out of a long tail, and that the cache reports them.
+ */
+public class HotKeyTrackerTest {
+
+    private static Key key(String name) {
+        return new Key(ChannelBuffers.wrappedBuffer(name.getBytes()));
+    }
+
+    @Test
+    public void testFindsHotKeysInLongTail() {
+        HotKeyTracker tracker = new HotKeyTracker(16, 1);
+        for (int i = 0; i < 10000; i++) {
+            tracker.offer(key("tail" + i));
+            if (i % 2 == 0) tracker.offer(key("hottest"));
+            if (i % 5 == 0) tracker.offer(key("hot"));
+        }
+
+        List<HotKeyTracker.HotKey> top = tracker.top();
+        assertEquals(16, top.size());
+        assertEquals(key("hottest"), top.get(0).key);
+        assertEquals(key("hot"), top.get(1).key);
+        // the estimate is never under the true count, and over by no more than the error
+        assertTrue(top.get(0).count >= 5000 && top.get(0).count - top.get(0).error <= 5000);
+        assertTrue(top.get(1).count >= 2000 && top.get(1).count - top.get(1).error <= 2000);
+
+        tracker.reset();
+        assertTrue(tracker.top().isEmpty());
+    }
+
+    @Test
+    public void testSampledCountsAreScaled() {
+        HotKeyTracker tracker = new HotKeyTracker(4, 10);
+        for (int i = 0; i < 1000; i++) tracker.offer(key("only"));
+
+        assertEquals(1, tracker.top().size());
+        assertEquals(1000, tracker.top().get(0).count);
+    }
+
+    @Test
+    public void testStatsHotKeys() {
+        CacheImpl cache = new CacheImpl(ConcurrentLinkedHashMap.<Key, LocalCacheElement>create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024));
+        assertTrue(cache.stat("hotkeys").isEmpty());
+
+        cache.setHotKeyTracking(HotKeyTracker.DEFAULT_CAPACITY, 1);
+        LocalCacheElement element = new LocalCacheElement(key("foo"), 0, 0, 0L);
+        element.setData(ChannelBuffers.wrappedBuffer("bar".getBytes()));
+        cache.set(element);
+        for (int i = 0; i < 3; i++) cache.get(key("foo"), key("baz"));
+
+        Stats stats = cache.stat("hotkeys reset");
+        assertEquals("foo", stats.getName(0));
+        assertEquals("baz", stats.getName(1));
+        assertEquals("count=4 error=0", stats.get("foo"));
+        assertTrue(cache.stat("hotkeys").isEmpty());
+    }
+}
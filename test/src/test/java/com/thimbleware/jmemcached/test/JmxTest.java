@@ -0,0 +1,101 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.bytebuffer.BlockStorageCacheStorage;
+import com.thimbleware.jmemcached.storage.bytebuffer.ByteBufferBlockStore;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the daemon's statistics can be read over JMX, and are gone once it stops.
+ */
+public class JmxTest {
+
+    private static final int PARTITIONS = 2;
+    private static final int BLOCK_SIZE = 8;
+
+    private MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private InetSocketAddress address;
+    private CacheImpl cache;
+
+    @Before
+    public void setUp() {
+        address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        cache = new CacheImpl(new BlockStorageCacheStorage(PARTITIONS, 1024 * 1024, BLOCK_SIZE, 1024 * 1024, 1000,
+                new ByteBufferBlockStore.ByteBufferBlockStoreFactory()));
+
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(cache);
+        daemon.setAddr(address);
+        daemon.setJmx(true);
+        daemon.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (daemon.isRunning()) daemon.stop();
+    }
+
+    private ObjectName name(String type) throws Exception {
+        return new ObjectName("com.thimbleware.jmemcached:instance=\"" + address.getPort() + "\",type=" + type);
+    }
+
+    @Test
+    public void testAttributes() throws Exception {
+        LocalCacheElement element = new LocalCacheElement(new Key(ChannelBuffers.wrappedBuffer("foo".getBytes())), 0, 0, 0L);
+        element.setData(ChannelBuffers.wrappedBuffer(new byte[100]));
+        cache.set(element);
+        cache.get(new Key(ChannelBuffers.wrappedBuffer("bar".getBytes())));
+
+        assertEquals(1L, server.getAttribute(name("Cache"), "SetCmds"));
+        assertEquals(1L, server.getAttribute(name("Cache"), "GetMisses"));
+        assertEquals(1, server.getAttribute(name("Storage"), "Items"));
+
+        int items = 0;
+        long usedBlocks = 0;
+        for (int i = 0; i < PARTITIONS; i++) {
+            ObjectName partition = name("Partition,partition=" + i);
+            long blocks = (Long) server.getAttribute(partition, "Blocks");
+            long free = (Long) server.getAttribute(partition, "FreeBlocks");
+            items += (Integer) server.getAttribute(partition, "Items");
+            usedBlocks += blocks - free;
+
+            // the one value sits at the start of its partition, so what's free is all in one piece
+            assertEquals(free, server.getAttribute(partition, "LargestFreeRun"));
+            assertEquals(0.0, (Double) server.getAttribute(partition, "Fragmentation"), 0);
+        }
+        assertEquals(1, items);
+        assertEquals((element.bufferSize() + BLOCK_SIZE - 1) / BLOCK_SIZE, usedBlocks);
+
+        Socket socket = new Socket(address.getAddress(), address.getPort());
+        socket.getOutputStream().write("version\r\n".getBytes("US-ASCII"));
+        socket.getInputStream().read();
+        assertEquals(1, server.getAttribute(name("Connections"), "CurrConnections"));
+        socket.close();
+    }
+
+    @Test
+    public void testUnregisteredOnStop() throws Exception {
+        assertTrue(server.isRegistered(name("Cache")));
+        daemon.stop();
+        assertFalse(server.isRegistered(name("Cache")));
+        assertFalse(server.isRegistered(name("Connections")));
+        assertFalse(server.isRegistered(name("Partition,partition=0")));
+    }
+}
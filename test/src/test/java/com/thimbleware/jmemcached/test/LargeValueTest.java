@@ -0,0 +1,101 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the text protocol's handling of values which arrive over many reads, or are too large to take.
+ */
+public class LargeValueTest {
+
+    private static final int MAX_VALUE_SIZE = 1024 * 1024;
+
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private Socket socket;
+    private BufferedReader in;
+    private OutputStream out;
+
+    @Before
+    public void setUp() throws IOException {
+        InetSocketAddress address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 16 * 1024 * 1024);
+
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(address);
+        daemon.setFrameSize(MAX_VALUE_SIZE);
+        daemon.start();
+
+        socket = new Socket(address.getHostName(), address.getPort());
+        socket.setSoTimeout(5000);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        out = socket.getOutputStream();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socket.close();
+        daemon.stop();
+    }
+
+    private void send(byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static byte[] value(int size) {
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) value[i] = (byte) ('a' + i % 26);
+        return value;
+    }
+
+    @Test
+    public void testValueArrivingInPieces() throws IOException, InterruptedException {
+        byte[] value = value(MAX_VALUE_SIZE);
+        send(("set big 0 0 " + value.length + "\r\n").getBytes("US-ASCII"));
+        for (int offset = 0; offset < value.length; offset += 100000) {
+            out.write(value, offset, Math.min(100000, value.length - offset));
+            out.flush();
+            Thread.sleep(1);
+        }
+        // a second command rides in with the end of the payload
+        send("\r\nset small 0 0 1\r\nx\r\n".getBytes("US-ASCII"));
+        assertEquals("STORED", in.readLine());
+        assertEquals("STORED", in.readLine());
+
+        send("get big small\r\n".getBytes("US-ASCII"));
+        assertEquals("VALUE big 0 " + value.length, in.readLine());
+        assertEquals(new String(value, "US-ASCII"), in.readLine());
+        assertEquals("VALUE small 0 1", in.readLine());
+        assertEquals("x", in.readLine());
+        assertEquals("END", in.readLine());
+    }
+
+    @Test
+    public void testOversizedValueIsRefused() throws IOException {
+        byte[] value = value(MAX_VALUE_SIZE + 1);
+        send(("set big 0 0 " + value.length + "\r\n").getBytes("US-ASCII"));
+        send(value);
+        send("\r\nget big\r\n".getBytes("US-ASCII"));
+
+        // the data block is dropped rather than read as commands
+        assertEquals("CLIENT_ERROR", in.readLine());
+        assertEquals("END", in.readLine());
+    }
+}
@@ -0,0 +1,80 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.channel.local.DefaultLocalServerChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks a listener on a transport other than TCP, here netty's in-VM one, serves the same cache.
+ */
+public class LocalListenerTest {
+
+    private static final Charset USASCII = Charset.forName("US-ASCII");
+
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private LocalAddress localAddress;
+
+    @Before
+    public void setUp() throws IOException {
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024);
+
+        localAddress = new LocalAddress("jmemcached-test");
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable()));
+        daemon.addListener(new DefaultLocalServerChannelFactory(), localAddress);
+        daemon.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        daemon.stop();
+    }
+
+    @Test
+    public void testSetAndGetOverLocalTransport() throws Exception {
+        final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<String>();
+
+        ClientBootstrap client = new ClientBootstrap(new DefaultLocalClientChannelFactory());
+        client.getPipeline().addLast("collector", new SimpleChannelUpstreamHandler() {
+            @Override
+            public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+                received.add(((ChannelBuffer) e.getMessage()).toString(USASCII));
+            }
+        });
+        Channel channel = client.connect(localAddress).awaitUninterruptibly().getChannel();
+
+        channel.write(ChannelBuffers.copiedBuffer("set local 0 0 5\r\nhello\r\n", USASCII));
+        assertEquals("STORED\r\n", received.poll(5, TimeUnit.SECONDS));
+
+        channel.write(ChannelBuffers.copiedBuffer("get local\r\n", USASCII));
+        StringBuilder response = new StringBuilder();
+        while (!response.toString().endsWith("END\r\n")) {
+            response.append(received.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals("VALUE local 0 5\r\nhello\r\nEND\r\n", response.toString());
+
+        channel.close().awaitUninterruptibly();
+    }
+}
@@ -0,0 +1,263 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.bytebuffer.BlockStorageCacheStorage;
+import com.thimbleware.jmemcached.storage.bytebuffer.ByteBufferBlockStore;
+import com.thimbleware.jmemcached.storage.bytebuffer.Partition;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Exercises the meta (mg/ms/md/ma/mn) text protocol commands over a raw socket, since the client libraries used
+ * by the other integration tests don't speak them.
+ */
+public class MetaProtocolTest {
+
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private Socket socket;
+    private BufferedReader in;
+    private OutputStream out;
+
+    @Before
+    public void setUp() throws IOException {
+        InetSocketAddress address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024);
+
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(address);
+        daemon.start();
+
+        socket = new Socket(address.getHostName(), address.getPort());
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        out = socket.getOutputStream();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socket.close();
+        daemon.stop();
+    }
+
+    private void send(String line) throws IOException {
+        out.write((line + "\r\n").getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    @Test
+    public void testSetGet() throws IOException {
+        send("ms foo 3 F5 T0 k");
+        send("bar");
+        assertEquals("HD kfoo", in.readLine());
+
+        send("mg foo s f v k Oabc");
+        assertEquals("VA 3 s3 f5 kfoo Oabc", in.readLine());
+        assertEquals("bar", in.readLine());
+
+        send("mg foo");
+        assertEquals("HD", in.readLine());
+
+        // hit and access time flags get fixed answers, as neither is tracked
+        send("mg foo h l u");
+        assertEquals("HD h0 l0", in.readLine());
+
+        send("mg missing v");
+        assertEquals("EN", in.readLine());
+    }
+
+    @Test
+    public void testQuietModePipeline() throws IOException {
+        send("ms foo 3 q");
+        send("bar");
+        send("mg missing v q");
+        send("md missing q");
+        send("mn");
+
+        // everything uninteresting was suppressed, so the no-op marker comes straight back
+        assertEquals("MN", in.readLine());
+    }
+
+    @Test
+    public void testCompareAndSwap() throws IOException {
+        send("ms foo 3 c");
+        send("bar");
+        String stored = in.readLine();
+        String cas = stored.substring("HD c".length());
+
+        send("ms foo 3 C" + (Long.parseLong(cas) + 1));
+        send("baz");
+        assertEquals("EX", in.readLine());
+
+        send("ms foo 3 C" + cas);
+        send("baz");
+        assertEquals("HD", in.readLine());
+
+        send("md foo C" + cas);
+        assertEquals("EX", in.readLine());
+
+        send("md foo");
+        assertEquals("HD", in.readLine());
+        send("md foo");
+        assertEquals("NF", in.readLine());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws IOException {
+        send("ms foo 3");
+        send("bar");
+        assertEquals("HD", in.readLine());
+
+        // invalidate; the item stays, but the first reader is told to recache it
+        send("md foo I");
+        assertEquals("HD", in.readLine());
+
+        send("mg foo v");
+        assertEquals("VA 3 X W", in.readLine());
+        assertEquals("bar", in.readLine());
+
+        send("mg foo v");
+        assertEquals("VA 3 X Z", in.readLine());
+        assertEquals("bar", in.readLine());
+
+        // a fresh set clears the stale state
+        send("ms foo 3");
+        send("baz");
+        assertEquals("HD", in.readLine());
+        send("mg foo v");
+        assertEquals("VA 3", in.readLine());
+        assertEquals("baz", in.readLine());
+    }
+
+    @Test
+    public void testInvalidatingSet() throws IOException {
+        send("ms foo 3 c");
+        send("bar");
+        String older = in.readLine().substring("HD c".length());
+        send("ms foo 3");
+        send("baz");
+        assertEquals("HD", in.readLine());
+
+        // an older cas is refused, unless the set invalidates: then it's stored, but stale
+        send("ms foo 3 C" + older);
+        send("qux");
+        assertEquals("EX", in.readLine());
+        send("ms foo 3 I C" + older);
+        send("qux");
+        assertEquals("HD", in.readLine());
+
+        send("mg foo v");
+        assertEquals("VA 3 X W", in.readLine());
+        assertEquals("qux", in.readLine());
+    }
+
+    @Test
+    public void testVivifyOnMiss() throws IOException {
+        send("mg foo s N30");
+        assertEquals("HD s0 W", in.readLine());
+
+        send("mg foo s N30");
+        assertEquals("HD s0 Z", in.readLine());
+    }
+
+    @Test
+    public void testArithmetic() throws IOException {
+        send("ms foo 1");
+        send("5");
+        assertEquals("HD", in.readLine());
+
+        send("ma foo v");
+        assertEquals("VA 1", in.readLine());
+        assertEquals("6", in.readLine());
+
+        send("ma foo MD D4 v");
+        assertEquals("VA 1", in.readLine());
+        assertEquals("2", in.readLine());
+
+        send("ma foo");
+        assertEquals("HD", in.readLine());
+
+        send("ma missing");
+        assertEquals("NF", in.readLine());
+    }
+
+    @Test
+    public void testArithmeticCompareAndSwap() throws IOException {
+        send("ms foo 1 c");
+        send("5");
+        String cas = in.readLine().substring("HD c".length());
+
+        send("ma foo C" + (Long.parseLong(cas) + 1) + " q");
+        assertEquals("EX", in.readLine());
+
+        send("ma foo C" + cas + " v");
+        assertEquals("VA 1", in.readLine());
+        assertEquals("6", in.readLine());
+
+        // the increment moved the cas on
+        send("ma foo C" + cas);
+        assertEquals("EX", in.readLine());
+    }
+
+    @Test
+    public void testArithmeticVivifyOnMiss() throws IOException {
+        send("ma counter N30 J10 v");
+        assertEquals("VA 2", in.readLine());
+        assertEquals("10", in.readLine());
+
+        send("ma counter N30 J10 v");
+        assertEquals("VA 2", in.readLine());
+        assertEquals("11", in.readLine());
+
+        send("ma counter T30 MD D5 v");
+        assertEquals("VA 1", in.readLine());
+        assertEquals("6", in.readLine());
+    }
+
+    @Test
+    public void testTouchFreesReplacedBlocks() throws IOException {
+        InetSocketAddress address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        BlockStorageCacheStorage storage = new BlockStorageCacheStorage(1, 64 * 1024, 8, 64 * 1024, 1000,
+                new ByteBufferBlockStore.ByteBufferBlockStoreFactory());
+        MemCacheDaemon<LocalCacheElement> blocks = new MemCacheDaemon<LocalCacheElement>();
+        blocks.setCache(new CacheImpl(storage));
+        blocks.setAddr(address);
+        blocks.start();
+
+        Socket client = new Socket(address.getHostName(), address.getPort());
+        try {
+            OutputStream out = client.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "US-ASCII"));
+            out.write("ms foo 3\r\nbar\r\n".getBytes("US-ASCII"));
+            assertEquals("HD", in.readLine());
+
+            Partition partition = storage.getPartitions()[0];
+            long free = partition.getFreeBlocks();
+
+            // each touch rewrites the item; far more of them than the store has room for, if the old blocks leaked
+            for (int i = 0; i < 2000; i++) {
+                out.write("mg foo T30 v\r\n".getBytes("US-ASCII"));
+                assertEquals("VA 3", in.readLine());
+                assertEquals("bar", in.readLine());
+            }
+            assertEquals(free, partition.getFreeBlocks());
+        } finally {
+            client.close();
+            blocks.stop();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a daemon detecting the protocol per connection serves text and binary clients on the one port, from
+ * the one cache.
+ */
+public class ProtocolDetectionTest {
+
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private InetSocketAddress address;
+
+    @Before
+    public void setUp() throws IOException {
+        address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024);
+
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(address);
+        daemon.setAutoDetectProtocol(true);
+        daemon.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        daemon.stop();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(address.getHostName(), address.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void writeBinaryRequest(DataOutputStream out, int opcode, byte[] extras, byte[] key, byte[] value) throws IOException {
+        out.writeByte(0x80);
+        out.writeByte(opcode);
+        out.writeShort(key.length);
+        out.writeByte(extras.length);
+        out.writeByte(0);
+        out.writeShort(0);
+        out.writeInt(extras.length + key.length + value.length);
+        out.writeInt(0);
+        out.writeLong(0);
+        out.write(extras);
+        out.write(key);
+        out.write(value);
+        out.flush();
+    }
+
+    /**
+     * @return the value in the response, or the status if it wasn't successful
+     */
+    private static String readBinaryResponse(DataInputStream in) throws IOException {
+        assertEquals(0x81, in.readUnsignedByte());
+        in.readUnsignedByte();
+        int keyLength = in.readUnsignedShort();
+        int extrasLength = in.readUnsignedByte();
+        in.readUnsignedByte();
+        int status = in.readUnsignedShort();
+        int bodyLength = in.readInt();
+        in.readInt();
+        in.readLong();
+
+        byte[] body = new byte[bodyLength];
+        in.readFully(body);
+        if (status != 0) return "status " + status;
+        int offset = extrasLength + keyLength;
+        return new String(body, offset, bodyLength - offset, "US-ASCII");
+    }
+
+    @Test
+    public void testTextAndBinaryClientsShareThePort() throws IOException {
+        Socket text = connect();
+        BufferedReader textIn = new BufferedReader(new InputStreamReader(text.getInputStream(), "US-ASCII"));
+        text.getOutputStream().write("set fromtext 0 0 5\r\nhello\r\n".getBytes("US-ASCII"));
+        assertEquals("STORED", textIn.readLine());
+
+        Socket binary = connect();
+        DataOutputStream binaryOut = new DataOutputStream(binary.getOutputStream());
+        DataInputStream binaryIn = new DataInputStream(binary.getInputStream());
+
+        writeBinaryRequest(binaryOut, 0x00, new byte[0], "fromtext".getBytes("US-ASCII"), new byte[0]);
+        assertEquals("hello", readBinaryResponse(binaryIn));
+
+        writeBinaryRequest(binaryOut, 0x01, new byte[8], "frombinary".getBytes("US-ASCII"), "world".getBytes("US-ASCII"));
+        assertEquals("", readBinaryResponse(binaryIn));
+
+        text.getOutputStream().write("get frombinary\r\n".getBytes("US-ASCII"));
+        assertEquals("VALUE frombinary 0 5", textIn.readLine());
+        assertEquals("world", textIn.readLine());
+        assertEquals("END", textIn.readLine());
+
+        text.close();
+        binary.close();
+    }
+
+    @Test
+    public void testCommandSplitAcrossFirstReads() throws IOException, InterruptedException {
+        Socket socket = connect();
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+
+        // the bytes the protocol was detected from must still reach the decoder
+        socket.getOutputStream().write("ver".getBytes("US-ASCII"));
+        socket.getOutputStream().flush();
+        Thread.sleep(100);
+        socket.getOutputStream().write("sion\r\n".getBytes("US-ASCII"));
+        assertEquals("VERSION " + MemCacheDaemon.memcachedVersion, in.readLine());
+        socket.close();
+    }
+}
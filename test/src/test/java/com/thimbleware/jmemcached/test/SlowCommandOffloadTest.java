@@ -0,0 +1,87 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that responses stay in order on a connection when slow commands are run off the network workers.
+ */
+public class SlowCommandOffloadTest {
+
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private Socket socket;
+    private BufferedReader in;
+    private OutputStream out;
+
+    @Before
+    public void setUp() throws IOException {
+        InetSocketAddress address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024);
+
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(address);
+        daemon.setSlowCommandThreads(2);
+        daemon.start();
+
+        socket = new Socket(address.getHostName(), address.getPort());
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        out = socket.getOutputStream();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socket.close();
+        daemon.stop();
+    }
+
+    @Test
+    public void testPipelinedResponsesStayInOrder() throws IOException {
+        // one write, so the fast commands queue up behind the offloaded ones
+        out.write(("set foo 0 0 3\r\nbar\r\n" +
+                "append foo 0 0 3\r\nbaz\r\n" +
+                "get foo\r\n" +
+                "stats\r\n" +
+                "get foo\r\n" +
+                "flush_all\r\n" +
+                "get foo\r\n" +
+                "version\r\n").getBytes("US-ASCII"));
+        out.flush();
+
+        assertEquals("STORED", in.readLine());
+        assertEquals("STORED", in.readLine());
+        assertEquals("VALUE foo 0 6", in.readLine());
+        assertEquals("barbaz", in.readLine());
+        assertEquals("END", in.readLine());
+
+        String line;
+        while ((line = in.readLine()).startsWith("STAT ")) {
+            // skip the stats body
+        }
+        assertEquals("END", line);
+
+        assertEquals("VALUE foo 0 6", in.readLine());
+        assertEquals("barbaz", in.readLine());
+        assertEquals("END", in.readLine());
+        assertEquals("OK", in.readLine());
+        assertEquals("END", in.readLine());
+        assertTrue(in.readLine().startsWith("VERSION "));
+    }
+}
@@ -79,6 +79,13 @@ public class SpyMemcachedIntegrationTest extends AbstractCacheTest {
         assertEquals( "0", _client.get( "foo" ) );
     }
 
+    @Test
+    public void testIncrWithDefault() {
+        assertEquals( 10, _client.incr( "counter", 5, 10 ) );
+        assertEquals( 15, _client.incr( "counter", 5, 10 ) );
+        assertEquals( 12, _client.decr( "counter", 3, 10 ) );
+    }
+
     @Test
     public void testPresence() {
         assertEquals("initial cache is empty", 0, getDaemon().getCache().getCurrentItems());
@@ -0,0 +1,212 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the stats commands report what was done over the connection.
+ */
+public class StatsTest {
+
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private Socket socket;
+    private BufferedReader in;
+    private OutputStream out;
+
+    @Before
+    public void setUp() throws IOException {
+        InetSocketAddress address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024);
+
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(address);
+        daemon.start();
+
+        socket = new Socket(address.getHostName(), address.getPort());
+        socket.setSoTimeout(5000);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        out = socket.getOutputStream();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socket.close();
+        daemon.stop();
+    }
+
+    private void send(String line) throws IOException {
+        out.write((line + "\r\n").getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private Map<String, String> stats() throws IOException {
+        return stats("stats");
+    }
+
+    private Map<String, String> stats(String command) throws IOException {
+        send(command);
+        Map<String, String> stats = new HashMap<String, String>();
+        for (String line = in.readLine(); !"END".equals(line); line = in.readLine()) {
+            String[] parts = line.split(" ", 3);
+            assertEquals("STAT", parts[0]);
+            stats.put(parts[1], parts[2]);
+        }
+        return stats;
+    }
+
+    @Test
+    public void testCommandCounts() throws IOException {
+        send("set foo 0 0 1");
+        send("5");
+        assertEquals("STORED", in.readLine());
+        send("incr foo 2");
+        assertEquals("7", in.readLine());
+        send("decr nothing 1");
+        assertEquals("NOT_FOUND", in.readLine());
+        send("cas foo 0 0 1 12345");
+        send("1");
+        assertEquals("EXISTS", in.readLine());
+        send("delete foo");
+        assertEquals("DELETED", in.readLine());
+        send("delete foo");
+        assertEquals("NOT_FOUND", in.readLine());
+        send("append foo 0 0 1");
+        send("6");
+        assertEquals("NOT_FOUND", in.readLine());
+
+        Map<String, String> stats = stats();
+        assertEquals("1", stats.get("cmd_sets"));
+        assertEquals("1", stats.get("incr_hits"));
+        assertEquals("0", stats.get("incr_misses"));
+        assertEquals("1", stats.get("decr_misses"));
+        assertEquals("1", stats.get("cas_badval"));
+        assertEquals("0", stats.get("cas_hits"));
+        assertEquals("1", stats.get("delete_hits"));
+        assertEquals("1", stats.get("delete_misses"));
+        assertEquals("0", stats.get("evictions"));
+        // none of the misses above were gets
+        assertEquals("0", stats.get("get_misses"));
+        assertNotNull(stats.get("rusage_user"));
+    }
+
+    @Test
+    public void testConnectionCounts() throws IOException {
+        Map<String, String> stats = stats();
+        assertEquals("1", stats.get("curr_connections"));
+        assertEquals("1", stats.get("total_connections"));
+        assertEquals("0", stats.get("rejected_connections"));
+        assertEquals(Long.toString("stats\r\n".length()), stats.get("bytes_read"));
+
+        // a round trip, so the connection has certainly been accepted
+        Socket other = new Socket(socket.getInetAddress(), socket.getPort());
+        other.getOutputStream().write("version\r\n".getBytes("US-ASCII"));
+        new BufferedReader(new InputStreamReader(other.getInputStream(), "US-ASCII")).readLine();
+        other.close();
+
+        // bytes written are counted once the first response has gone out
+        stats = stats();
+        assertEquals("2", stats.get("total_connections"));
+        assertTrue(Long.parseLong(stats.get("bytes_written")) > 0);
+    }
+
+    @Test
+    public void testLatency() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            send("set foo 0 0 1");
+            send("5");
+            assertEquals("STORED", in.readLine());
+        }
+        send("get foo");
+        assertEquals("VALUE foo 0 1", in.readLine());
+        assertEquals("5", in.readLine());
+        assertEquals("END", in.readLine());
+
+        Map<String, String> latency = stats("stats latency reset");
+        assertTrue(latency.get("set"), latency.get("set").startsWith("count=10 p50="));
+        assertTrue(latency.get("get"), latency.get("get").startsWith("count=1 "));
+        assertTrue(latency.get("get").contains(" p999="));
+        assertTrue(latency.get("storage"), latency.get("storage").startsWith("count=11 "));
+        assertNull(latency.get("cmd_gets"));
+
+        // the reset started the counts afresh; the stats command itself is counted once it has run
+        latency = stats("stats latency");
+        assertNull(latency.get("set"));
+        assertEquals("count=0 p50=0.0 p99=0.0 p999=0.0 max=0.0", latency.get("storage"));
+        assertTrue(latency.get("stats"), latency.get("stats").startsWith("count=1 "));
+    }
+
+    @Test
+    public void testBinaryStats() throws IOException {
+        InetSocketAddress address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        MemCacheDaemon<LocalCacheElement> binary = new MemCacheDaemon<LocalCacheElement>();
+        binary.setCache(new CacheImpl(ConcurrentLinkedHashMap.<Key, LocalCacheElement>create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024)));
+        binary.setAddr(address);
+        binary.setBinary(true);
+        binary.start();
+
+        Socket client = new Socket(address.getHostName(), address.getPort());
+        try {
+            client.setSoTimeout(5000);
+            DataOutputStream request = new DataOutputStream(client.getOutputStream());
+            request.writeByte(0x80); // magic
+            request.writeByte(0x10); // stat
+            request.writeShort(0); // key length
+            request.writeInt(0); // extras length, data type and reserved
+            request.writeInt(0); // body length
+            request.writeInt(42); // opaque
+            request.writeLong(0); // cas
+            request.flush();
+
+            // a packet per stat, each keyed by its name, then an empty one
+            DataInputStream response = new DataInputStream(client.getInputStream());
+            Map<String, String> stats = new HashMap<String, String>();
+            while (true) {
+                assertEquals(0x81, response.readUnsignedByte());
+                assertEquals(0x10, response.readUnsignedByte());
+                int keyLength = response.readUnsignedShort();
+                response.skipBytes(4); // extras length, data type and status
+                int bodyLength = response.readInt();
+                assertEquals(42, response.readInt());
+                response.readLong();
+                if (bodyLength == 0) break;
+
+                byte[] key = new byte[keyLength];
+                byte[] value = new byte[bodyLength - keyLength];
+                response.readFully(key);
+                response.readFully(value);
+                stats.put(new String(key, "US-ASCII"), new String(value, "US-ASCII"));
+            }
+            assertEquals("0", stats.get("cmd_sets"));
+            assertEquals("1", stats.get("curr_connections"));
+            assertNotNull(stats.get("version"));
+        } finally {
+            client.close();
+            binary.stop();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.thimbleware.jmemcached.test;
+
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks text protocol gets over UDP, against values stored over TCP.
+ */
+public class UdpGetTest {
+
+    private MemCacheDaemon<LocalCacheElement> daemon;
+    private InetSocketAddress address;
+    private InetSocketAddress udpAddress;
+    private DatagramSocket udp;
+
+    @Before
+    public void setUp() throws IOException {
+        address = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable());
+        udpAddress = new InetSocketAddress("localhost", AvailablePortFinder.getNextAvailable(address.getPort() + 1));
+        ConcurrentLinkedHashMap<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+                ConcurrentLinkedHashMap.EvictionPolicy.FIFO, 1000, 1024 * 1024);
+
+        daemon = new MemCacheDaemon<LocalCacheElement>();
+        daemon.setCache(new CacheImpl(storage));
+        daemon.setAddr(address);
+        daemon.setUdpPort(udpAddress.getPort());
+        daemon.start();
+
+        udp = new DatagramSocket();
+        udp.setSoTimeout(5000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        udp.close();
+        daemon.stop();
+    }
+
+    private void store(String key, String value) throws IOException {
+        Socket socket = new Socket(address.getHostName(), address.getPort());
+        socket.setSoTimeout(5000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        socket.getOutputStream().write(("set " + key + " 0 0 " + value.length() + "\r\n" + value + "\r\n").getBytes("US-ASCII"));
+        assertEquals("STORED", in.readLine());
+        socket.close();
+    }
+
+    private void request(int requestId, String text) throws IOException {
+        byte[] command = text.getBytes("US-ASCII");
+        ByteBuffer datagram = ByteBuffer.allocate(8 + command.length);
+        datagram.putShort((short) requestId).putShort((short) 0).putShort((short) 1).putShort((short) 0).put(command);
+        udp.send(new DatagramPacket(datagram.array(), datagram.capacity(), udpAddress));
+    }
+
+    /**
+     * Receive every datagram of the response, checking their frame headers, and return the reassembled text.
+     */
+    private String response(int requestId) throws IOException {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        int total = -1;
+        for (int expected = 0; total == -1 || expected < total; expected++) {
+            DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+            udp.receive(packet);
+            ByteBuffer datagram = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+            assertEquals(requestId, datagram.getShort() & 0xffff);
+            assertEquals(expected, datagram.getShort() & 0xffff);
+            total = datagram.getShort() & 0xffff;
+            datagram.getShort();
+            text.write(packet.getData(), 8, packet.getLength() - 8);
+        }
+        return text.toString("US-ASCII");
+    }
+
+    @Test
+    public void testGetOverUdp() throws IOException {
+        store("one", "first");
+        store("two", "second");
+
+        request(7, "get one\r\n");
+        assertEquals("VALUE one 0 5\r\nfirst\r\nEND\r\n", response(7));
+
+        // every command in the request is answered, in the one message
+        request(8, "get one two\r\nget nothing\r\n");
+        assertEquals("VALUE one 0 5\r\nfirst\r\nVALUE two 0 6\r\nsecond\r\nEND\r\nEND\r\n", response(8));
+    }
+
+    @Test
+    public void testLargeResponseSpansDatagrams() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 4000; i++) value.append((char) ('a' + i % 26));
+        store("big", value.toString());
+
+        request(65535, "get big\r\n");
+        assertEquals("VALUE big 0 4000\r\n" + value + "\r\nEND\r\n", response(65535));
+    }
+
+    @Test
+    public void testOnlyGetsAreServed() throws IOException {
+        request(1, "set key 0 0 1\r\nx\r\n");
+        assertEquals("CLIENT_ERROR\r\n", response(1));
+
+        request(2, "get key\r\n");
+        assertEquals("END\r\n", response(2));
+    }
+}